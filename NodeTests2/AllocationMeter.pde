@@ -0,0 +1,63 @@
+// Bytes allocated by the animation thread per frame, read from the JVM's
+// per-thread allocation counter. Only HotSpot based JVMs have one; elsewhere
+// the meter stays quiet. 'm' turns the report on and off.
+AllocationMeter allocationMeter = new AllocationMeter(60);
+
+class AllocationMeter
+{
+  private com.sun.management.ThreadMXBean myBean;
+  private long myLastBytes = -1;
+  private long myBytes = 0;
+  private int myFrames = 0;
+  private int myWindow;
+  private long myLastReport = 0;
+  boolean isReporting = false;
+
+  // averages over window frames
+  AllocationMeter(int window)
+  {
+    myWindow = window;
+    java.lang.management.ThreadMXBean bean = java.lang.management.ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean)
+    {
+      myBean = (com.sun.management.ThreadMXBean) bean;
+      if (!myBean.isThreadAllocatedMemorySupported())
+        myBean = null;
+      else
+        myBean.setThreadAllocatedMemoryEnabled(true);
+    }
+  }
+
+  boolean isSupported()
+  {
+    return myBean != null;
+  }
+
+  // call once per frame from the thread being measured
+  void frame()
+  {
+    if (myBean == null)
+      return;
+    long bytes = myBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    if (myLastBytes >= 0)
+    {
+      myBytes += bytes - myLastBytes;
+      myFrames++;
+    }
+    myLastBytes = bytes;
+    if (myFrames == myWindow)
+    {
+      myLastReport = myBytes / myFrames;
+      if (isReporting)
+        println("allocated: " + myLastReport + " bytes/frame");
+      myBytes = 0;
+      myFrames = 0;
+    }
+  }
+
+  // bytes per frame over the last full window
+  long bytesPerFrame()
+  {
+    return myLastReport;
+  }
+}
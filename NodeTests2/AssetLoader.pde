@@ -0,0 +1,88 @@
+// Runs asset loading jobs on a fixed pool of worker threads. Results are
+// picked up on the animation thread through the returned Futures, which
+// also makes everything a job built visible to that thread.
+class AssetLoader
+{
+  private ExecutorService myPool;
+  private AtomicInteger myFinished = new AtomicInteger();
+  private int myTotal = 0;
+
+  AssetLoader()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  AssetLoader(int threads)
+  {
+    myPool = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory()
+    {
+      public Thread newThread(Runnable r)
+      {
+        Thread t = new Thread(r, "asset loader");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  <T> Future<T> submit(final Callable<T> job)
+  {
+    myTotal++;
+    return myPool.submit(new Callable<T>()
+    {
+      public T call() throws Exception
+      {
+        try
+        {
+          return job.call();
+        }
+        finally
+        {
+          myFinished.incrementAndGet();
+        }
+      }
+    });
+  }
+
+  int finished()
+  {
+    return myFinished.get();
+  }
+
+  int total()
+  {
+    return myTotal;
+  }
+
+  float progress()
+  {
+    return myTotal == 0 ? 1 : (float) myFinished.get() / myTotal;
+  }
+
+  boolean isDone()
+  {
+    return myFinished.get() == myTotal;
+  }
+
+  void shutdown()
+  {
+    myPool.shutdownNow();
+  }
+
+  // Waits for a finished job and rethrows whatever it failed with.
+  <T> T result(Future<T> asset)
+  {
+    try
+    {
+      return asset.get();
+    }
+    catch (InterruptedException e)
+    {
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+}
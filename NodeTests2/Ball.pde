@@ -1,18 +1,26 @@
-float gravity = 0.2;
+static float gravity = 0.2;
 
 class Ball extends Node{
 
    int pts = 40; 
-  float angle = 0;
   //float radius = 1.0;
   
   // lathe segments
   int segments = 60;
-  float latheAngle = 0;
   float latheRadius = 0;
-  PVector vertices[], vertices2[];
   PVector location = new PVector();
   PVector position = new PVector();
+  // position at the start of the last simulation step, for interpolation
+  PVector previousPosition = new PVector();
+  private PVector myRenderPosition = new PVector();
+  private PVector myWorldPosition = new PVector();
+  private PVector myBounceNormal = new PVector();
+  private PVector myBounceSpeed = new PVector();
+  private PVector myBounceComponent = new PVector();
+  // the mesh drawSphere() draws and the dimensions it was built for
+  private Mesh myMesh;
+  private int myMeshRadius, myMeshPts, myMeshSegments;
+  private float myMeshLatheRadius;
   PVector speed;
   boolean isWireFrame = false;
 
@@ -29,14 +37,20 @@ class Ball extends Node{
     this.speed = speed;
     this.radius = radius;
     this.position = position;
+    previousPosition.set(position);
   }  
 
+  // one simulation step covering the given number of reference frames;
+  // Simulation.step() applies the rest of the rules and then update()
+  void step(float frames) {
+    previousPosition.set(position);
+    stepBall(position, speed, frames);
+  }
+
   void update() {
-    speed.y+= gravity;
-    position.add(speed);
-    location.x = modelX(position.x,position.y,position.z);
-    location.y = modelY(position.x,position.y,position.z);
-    location.z = modelZ(position.x,position.y,position.z);
+    updateWorld();
+    myWorldMatrix.mult(position, myWorldPosition);
+    viewMatrix.mult(myWorldPosition, location);
 
   }
 
@@ -61,7 +75,10 @@ class Ball extends Node{
   }
 
   void draw() {
-    this.update();
+    float alpha = simulation.alpha();
+    myRenderPosition.x = lerp(previousPosition.x, position.x, alpha);
+    myRenderPosition.y = lerp(previousPosition.y, position.y, alpha);
+    myRenderPosition.z = lerp(previousPosition.z, position.z, alpha);
     boolean light = false;
     noStroke();
     if (light == true){
@@ -70,7 +87,7 @@ class Ball extends Node{
       fill(250,250,0);                    
     }
     pushMatrix();
-    translate(position.x,position.y,position.z);
+    translate(myRenderPosition.x,myRenderPosition.y,myRenderPosition.z);
     roll();
     //println(location.x + ", " + location.y + ", " + location.z);
     if (isWireFrame)
@@ -90,44 +107,67 @@ class Ball extends Node{
   }
 
 
+  // position in the frame the scene graph is drawn in, before viewMatrix
+  PVector worldPosition()
+  {
+    return myWorldPosition;
+  }
+
   void setSpeed(PVector speed)
   {
     this.speed = speed;
   }
   void bounce(Ball ballA, Ball ballB) {
-    PVector ab = new PVector();
-    ab.set(ballA.location);
-    ab.sub(ballB.location);
-    ab.normalize();
+    PVector n = myBounceNormal;
+    subInto(ballA.location, ballB.location, n);
+    n.normalize();
     while(ballA.location.dist(ballB.location) < (ballA.radius + ballB.radius)) {   //*spring) {
-      ballA.location.add(ab);
+      ballA.location.add(n);
     }
-    PVector n = PVector.sub(ballA.location, ballB.location);
-    n.normalize();
-    PVector u = PVector.sub(ballA.speed, ballB.speed);
-    PVector un = componentVector(u,n);
+    subInto(ballA.location, ballB.location, n);
+    PVector u = subInto(ballA.speed, ballB.speed, myBounceSpeed);
+    PVector un = componentInto(u, n, myBounceComponent);
     u.sub(un);
-    ballA.speed = PVector.add(u, ballB.speed);
-    ballB.speed= PVector.add(un, ballB.speed);
+    addInto(u, ballB.speed, ballA.speed);
+    ballB.speed.add(un);
   }
 
-  PVector componentVector (PVector vector, PVector directionVector) {
-    directionVector.normalize();
-    directionVector.mult(vector.dot(directionVector));
-    return directionVector;
-  }
-  
   PVector vectorFrom (PVector a)
   {
-    //println(a);
-    return new PVector(location.x - a.x, location.y - a.y, location.z - a.z);
+    return vectorFrom(a, new PVector());
+  }
+
+  PVector vectorFrom (PVector a, PVector out)
+  {
+    out.set(location.x - a.x, location.y - a.y, location.z - a.z);
+    return out;
   }
   
    void drawSphere()
+{
+  // the fields are open to change, so the mesh is looked up again only when
+  // one of them has
+  if (myMesh == null || myMeshRadius != radius || myMeshPts != pts
+      || myMeshSegments != segments || myMeshLatheRadius != latheRadius)
+  {
+    myMeshRadius = radius;
+    myMeshPts = pts;
+    myMeshSegments = segments;
+    myMeshLatheRadius = latheRadius;
+    String key = "ball " + radius + " " + pts + " " + segments + " " + latheRadius;
+    myMesh = cachedMesh(key);
+    if (myMesh == null)
+      myMesh = cacheMesh(key, buildSphere());
+  }
+  myMesh.draw();
+}
+
+  Mesh buildSphere()
 {
   // initialize point arrays
-  vertices = new PVector[pts+1];
-  vertices2 = new PVector[pts+1];
+  PVector vertices[] = new PVector[pts+1];
+  PVector vertices2[] = new PVector[pts+1];
+  float angle = 0;
 
   // fill arrays
   for(int i=0; i<=pts; i++)
@@ -140,24 +180,24 @@ class Ball extends Node{
   }
 
   // draw toroid
-  latheAngle = 0;
+  MeshBuilder builder = new MeshBuilder();
+  float latheAngle = 0;
   for(int i=0; i<=segments; i++)
   {
-    beginShape(QUAD_STRIP);
+    builder.beginStrip(QUAD_STRIP, false);
     for(int j=0; j<=pts; j++)
     {
       if (i>0)
       {
-        vertex(vertices2[j].x, vertices2[j].y, vertices2[j].z);
+        builder.vertex(vertices2[j].x, vertices2[j].y, vertices2[j].z);
       }
       vertices2[j].x = cos(radians(latheAngle))*vertices[j].x;
       vertices2[j].y = sin(radians(latheAngle))*vertices[j].x;
       vertices2[j].z = vertices[j].z;
-      vertex(vertices2[j].x, vertices2[j].y, vertices2[j].z);
+      builder.vertex(vertices2[j].x, vertices2[j].y, vertices2[j].z);
     }
     latheAngle+=360.0/segments;    
-    endShape();
   }
+  return builder.build();
 }  
 }
-
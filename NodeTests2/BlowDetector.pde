@@ -0,0 +1,92 @@
+// Hears a blow into the mic. It listens on the line in, so the level is
+// followed on the audio thread as each buffer arrives rather than by
+// scanning a copy of the mix every frame. The envelope rises fast and falls
+// slowly; a blow starts when it climbs past onLevel and ends when it drops
+// below offLevel, and another cannot start until holdSeconds after that, so
+// one breath is one blow. Nothing here allocates, and the animation thread
+// only reads a volatile flag and an atomic count.
+BlowDetector blowDetector;
+
+class BlowDetector implements AudioListener
+{
+  float onLevel = 0.4;
+  float offLevel = 0.2;
+  float holdSeconds = 0.25;
+
+  // per sample, audio thread only
+  private float myAttack;
+  private float myRelease;
+  private float mySampleRate;
+  private float myEnvelope = 0;
+  private long mySamples = 0;
+  private long myEndedAt = Long.MIN_VALUE / 2;
+
+  private volatile boolean isBlowing = false;
+  private volatile float myLevel = 0;
+  private AtomicInteger myBlows = new AtomicInteger();
+  // blows the animation thread has taken
+  private int myTaken = 0;
+
+  BlowDetector(float sampleRate)
+  {
+    mySampleRate = sampleRate;
+    myAttack = 1 - exp(-1 / (0.002 * sampleRate));
+    myRelease = 1 - exp(-1 / (0.1 * sampleRate));
+  }
+
+  public void samples(float[] samp)
+  {
+    for (int i = 0; i < samp.length; i++)
+      follow(samp[i]);
+    myLevel = myEnvelope;
+  }
+
+  public void samples(float[] sampL, float[] sampR)
+  {
+    for (int i = 0; i < sampL.length; i++)
+      follow((sampL[i] + sampR[i]) / 2);
+    myLevel = myEnvelope;
+  }
+
+  // whether a blow is going on now
+  boolean isBlowing()
+  {
+    return isBlowing;
+  }
+
+  // the envelope at the end of the last buffer
+  float level()
+  {
+    return myLevel;
+  }
+
+  // true once for each blow that started since the last call
+  boolean takeBlow()
+  {
+    int blows = myBlows.get();
+    if (blows == myTaken)
+      return false;
+    myTaken = blows;
+    return true;
+  }
+
+  private void follow(float sample)
+  {
+    float x = abs(sample);
+    myEnvelope += (x - myEnvelope) * (x > myEnvelope ? myAttack : myRelease);
+    mySamples++;
+    if (!isBlowing)
+    {
+      if (myEnvelope > onLevel && mySamples - myEndedAt >= holdSeconds * mySampleRate)
+      {
+        isBlowing = true;
+        myBlows.incrementAndGet();
+      }
+    }
+    else if (myEnvelope < offLevel)
+    {
+      isBlowing = false;
+      myEndedAt = mySamples;
+    }
+  }
+}
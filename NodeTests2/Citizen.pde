@@ -6,24 +6,34 @@ class Player implements Collideable
   PVector myDirection;
   PVector mySpeed = new PVector();
   PVector myAbsoluteLocation = new PVector();
+  // location at the start of the last simulation step, for interpolation
+  PVector myPreviousLocation;
   List<PVector> myCurve;
+  PlayerPath myPath;
   final PVector initialDirection = new PVector(1,0,0);
-  
-  float time = 0;
-  // nearest curve point for interpolation 
-  int step = 0;
+  // turns the head from initialDirection to myDirection, rebuilt only when
+  // myDirection changes
+  private PMatrix3D myOrientation = new PMatrix3D();
+  private PVector myPreviousAbsoluteLocation = new PVector();
+  private PVector myBounceNormal = new PVector();
+  private PVector myBounceSpeed = new PVector();
+  private PVector myBounceComponent = new PVector();
+  
+  // distance run along myPath, there and back
+  float travel = 0;
   // key control variables
   float speed = 5.0;
-  boolean forward = true;
   
   Player (List<PVector> inputCurve)
   {
 
     myCurve = inputCurve;
+    myPath = new PlayerPath(myCurve);
     myRadius = 30;
-    myLocation = new PVector(myCurve.get(0).x, myRadius * -1, myCurve.get(0).y);
-    myDirection = initialDirection;
-    myDirection.normalize();
+    myLocation = new PVector(0, myRadius * -1, 0);
+    myPath.locate(travel, myLocation);
+    myPreviousLocation = myLocation.get();
+    myDirection = initialDirection.get();
   }
   
   Player (String inputFile)
@@ -35,84 +45,85 @@ class Player implements Collideable
     speed+=0.001;
   }
   
+  // one simulation step covering the given number of reference frames
+  void step(float frames)
+  {
+    travel = myPath.wrap(travel + speed * frames);
+    myPreviousLocation.set(myLocation);
+    myPath.locate(travel, myLocation);
+    face(myLocation.x - myPreviousLocation.x, myLocation.z - myPreviousLocation.z);
+  }
+  
+  // puts the player straight down at a distance along its path
+  void moveTo(float travel)
+  {
+    this.travel = myPath.wrap(travel);
+    myPath.locate(this.travel, myLocation);
+    myPreviousLocation.set(myLocation);
+  }
+  
+  // Turns to face the way the player is moving on the ground. Only the
+  // heading changes, so the orientation is a plain turn about y built from
+  // the direction itself, with no angles involved.
+  void face(float dx, float dz)
+  {
+    float length = sqrt(dx * dx + dz * dz);
+    if (length < 1e-4)
+      return;
+    dx /= length;
+    dz /= length;
+    if (abs(dx - myDirection.x) < 1e-4 && abs(dz - myDirection.z) < 1e-4)
+      return;
+    myDirection.set(dx, 0, dz);
+    myOrientation.set(dx, 0, -dz, 0,
+                      0,  1,   0, 0,
+                      dz, 0,  dx, 0,
+                      0,  0,   0, 1);
+  }
+  
   void display()
   {
     pushMatrix();
-    PVector a = myCurve.get(step);
-    PVector b = myCurve.get(step+1);
-    PVector c = myCurve.get(step+2);
-    PVector d = myCurve.get(step+3);
-    
-    if (!forward)
-    {
-      d = a;
-      a = d;
-      b = c;
-      c = b;
-    }
-    float x = curvePoint(a.x, b.x, c.x, d.x, time);
-    float y = curvePoint(a.y, b.y, c.y, d.y, time);
-    
-    translate(x, myLocation.y, y);
-    //this.rotateTo(new PVector(x - myLocation.x, 0, y-myLocation.z));
-
-    
-    myLocation.x = x;
-    myLocation.z = y;
-
-
+    float alpha = simulation.alpha();
+    float x = lerp(myPreviousLocation.x, myLocation.x, alpha);
+    float z = lerp(myPreviousLocation.z, myLocation.z, alpha);
+    translate(x, myLocation.y, z);
     //ellipse(x, y, 20, 20);
 
-    update(b, c);
-    
-    this.rotateTo(initialDirection);
+    applyMatrix(myOrientation);
     this.makeHead();
     popMatrix();
-    PVector tempLocation = myAbsoluteLocation.get();
+    myPreviousAbsoluteLocation.set(myAbsoluteLocation);
     myAbsoluteLocation.x = modelX(myLocation.x,myLocation.y,myLocation.z);
     myAbsoluteLocation.y = modelY(myLocation.x,myLocation.y,myLocation.z);
     myAbsoluteLocation.z = modelZ(myLocation.x,myLocation.y,myLocation.z);
-    mySpeed = PVector.sub(myAbsoluteLocation,tempLocation);
-  }
-  
-  void update (PVector start, PVector end)
-  {
-    // note, just uses linear distance
-    time += speed / PVector.dist(start, end);
-    if (time >= 1.0)
-    {
-      time = 0;
-      if(forward)
-        step++;
-      else
-        step--;
-      if (step > myCurve.size() - 4)
-      {
-        forward = !forward;
-        step--;
-      }
-      if (step == 0)
-      {
-        forward = !forward;
-        step++;
-      }
-    }
+    subInto(myAbsoluteLocation, myPreviousAbsoluteLocation, mySpeed);
   }
   
-   void collide()
+   void collide(Ball ball)
   {
-//    println("Player Location" + myAbsoluteLocation);
-//    println("Ball Location: " + ball.location);
-     if (myAbsoluteLocation.dist(ball.location) < (myRadius+ ball.radius)) {
-         println("Collision!");
-         resetBall();
-         booSound.play(0);
+//    println("Player Location" + myLocation);
+//    println("Ball Location: " + ball.worldPosition());
+     if (touchesBall(myLocation, myRadius, ball.worldPosition(), ball.radius)) {
+         resetBall(ball);
+         if (!matchInput.isFastForwarding())
+           booSound.play(0);
 
           //bounce();
         }
 
   }
   
+  PVector collisionCenter()
+  {
+    return myLocation;
+  }
+  
+  float collisionRadius()
+  {
+    return myRadius;
+  }
+  
    void bounce()
  { 
 //    PVector ab = new PVector();
@@ -124,26 +135,18 @@ class Player implements Collideable
 //      ball.location.add(ab);
 //    }
     
-    PVector ab = new PVector();
-    ab.set(ball.location);
-    ab.sub(myAbsoluteLocation);
-    ab.normalize();
+    PVector n = myBounceNormal;
+    subInto(ball.location, myAbsoluteLocation, n);
+    n.normalize();
     while(ball.location.dist(myAbsoluteLocation) < (ball.radius + myRadius)) {   //*spring) {
-      ball.location.add(ab);
+      ball.location.add(n);
     }
-    PVector n = PVector.sub(ball.location, myAbsoluteLocation);
-    n.normalize();
-    PVector u = PVector.sub(ball.speed, mySpeed);
-    PVector un = componentVector(u,n);
+    subInto(ball.location, myAbsoluteLocation, n);
+    PVector u = subInto(ball.speed, mySpeed, myBounceSpeed);
+    PVector un = componentInto(u, n, myBounceComponent);
     u.sub(un);
-    ball.speed = PVector.add(u, mySpeed);
+    addInto(u, mySpeed, ball.speed);
  }
- 
- PVector componentVector (PVector vector, PVector directionVector) {
-    directionVector.normalize();
-    directionVector.mult(vector.dot(directionVector));
-    return directionVector;
-  }
   void makeHead()
   {
     fill(255, 255, 255);
@@ -169,219 +172,6 @@ class Player implements Collideable
   
 
   
-    PVector findAngles(PVector a, PVector b)
-  {
-    PVector result = new PVector();
-    
-    result.x = this.angleBetween(new PVector(0, a.y, a.z), new PVector(0, b.y, b.z) );
-    if((new PVector(0, a.y, a.z)).cross(new PVector(0, b.y, b.z)).x < 0)
-      result.x = (2*PI - result.x);
-      
-    result.y = this.angleBetween(new PVector(a.x, 0, a.z), new PVector(b.x, 0, b.z) );
-    if((new PVector(a.x, 0, a.z)).cross(new PVector(b.x, 0, b.z)).y < 0)
-      result.y = (2*PI - result.y);
-      
-    result.z = this.angleBetween(new PVector(a.x, a.y, 0), new PVector(b.x, b.y, 0) );
-    if((new PVector(a.x, a.y, 0)).cross(new PVector(b.x, b.y, 0)).z < 0)
-      result.z = (2*PI - result.z);
-
-    //println (result.x + ", " + result.y + ", " + result.z);
-    return result;
-  }
-  
-  void rotateTo(PVector a)
-  {
-    PVector rotateValues = this.findAngles(a,myDirection);
-    if (!Float.isNaN(rotateValues.x))
-      rotateX(rotateValues.x);
-    if (!Float.isNaN(rotateValues.y))
-      rotateY(rotateValues.y);
-    if (!Float.isNaN(rotateValues.z))
-      rotateZ(rotateValues.z);
-    
-  }
-  
-  float angleBetween(PVector a, PVector b)
-  {
-    return (float)Math.acos(a.dot(b) / a.mag() / b.mag());
-  }
-}
-
-
-
-
 
-
-class Spectator
-{
-  PVector myLocation;
-  float myRadius;
-  PVector myDirection;
-  final PVector initialDirection = new PVector(1,0,0);
-  float a = 0.0;
-  float a2 = 0.0;
-  float inc = TWO_PI/25.0;
-  float inc2 = TWO_PI/500.0;
-  boolean isCheering = false;
-  boolean isGroaning = false;
-  boolean isShivering = false;
-  
-  Spectator(PVector inputLocation, PVector inputDirection, float inputRadius)
-  {
-    myLocation = inputLocation;
-    myRadius = inputRadius;
-    myDirection = inputDirection;
-    myDirection.normalize();
-  }
-  
-  Spectator(PVector inputLocation)
-  {
-    this(inputLocation, new PVector(0, 0, 1), 30);
-  }
-  
-  Spectator(PVector inputLocation, PVector inputDirection)
-  {
-    this(inputLocation, inputDirection, 30);
-  }
   
-
-  
-  void display()
-  {
-    pushMatrix();
-    translate(myLocation.x,myLocation.y,myLocation.z);
-    if (isCheering)
-    {
-      translate(0, -30.0*abs(sin(a)) ,0);
-      a = a + inc;
-    }
-    
-    if (isShivering)
-    {
-      translate(-3*sin(100*a), 0 ,0);
-      a = a + inc;
-    }
-    if (isGroaning)
-    {
-      rotateX(-10*sin(a2));
-      if (10*sin(a2) < PI/2)
-        a2 = a2 + inc2;
-      
-    }
-    this.rotateTo(initialDirection);
-    //this.rotateTo(ball.vectorFrom(myLocation));
-    this.makeHead();
-    popMatrix();
-  }
-  
-  void cheer(int seconds, float frequency)
-  {
-    isCheering = true;
-    Timer t = new Timer();
-    inc = frequency;
-    TimerTask task = new TimerTask()
-    {
-      public void run()
-      {
-        isCheering=false;
-      }
-    };
-    
-    t.schedule(task, seconds*1000);
-  }
-  
-   void shiver(int seconds, float frequency)
-  {
-    isShivering = true;
-    Timer t = new Timer();
-    inc = frequency;
-    TimerTask task = new TimerTask()
-    {
-      public void run()
-      {
-        isShivering=false;
-      }
-    };
-    
-    t.schedule(task, seconds*1000);
-  }
-  
-  void groan()
-  {
-    isGroaning = true;
-    a2 = 0.0;
-    Timer t = new Timer();
-    //inc2 = frequency;
-    TimerTask task = new TimerTask()
-    {
-      public void run()
-      {
-        isGroaning=false;
-      }
-    };
-    
-    t.schedule(task, 1000);
-  }
-  
-  void makeHead()
-  {
-    fill(255, 255, 255);
-
-    sphere(myRadius);
-    
-    fill(0,0,0);
-    pushMatrix();
-    translate(myRadius * .8, -1 * (myRadius/2), myRadius * .5);
-    sphere(myRadius/6);
-    popMatrix();
-          
-    pushMatrix();
-    translate(myRadius * .8, -1 * (myRadius/2), myRadius * -.5);
-    sphere(myRadius/6);
-    popMatrix(); 
-
-    pushMatrix();
-    translate(myRadius * .8, 1 * (myRadius/2), 0);
-    sphere(myRadius/6);
-    popMatrix();   
-  }
-  
-  PVector findAngles(PVector a, PVector b)
-  {
-    PVector result = new PVector();
-    
-    result.x = this.angleBetween(new PVector(0, a.y, a.z), new PVector(0, b.y, b.z) );
-    if((new PVector(0, a.y, a.z)).cross(new PVector(0, b.y, b.z)).x < 0)
-      result.x = (2*PI - result.x);
-      
-    result.y = this.angleBetween(new PVector(a.x, 0, a.z), new PVector(b.x, 0, b.z) );
-    if((new PVector(a.x, 0, a.z)).cross(new PVector(b.x, 0, b.z)).y < 0)
-      result.y = (2*PI - result.y);
-      
-    result.z = this.angleBetween(new PVector(a.x, a.y, 0), new PVector(b.x, b.y, 0) );
-    if((new PVector(a.x, a.y, 0)).cross(new PVector(b.x, b.y, 0)).z < 0)
-      result.z = (2*PI - result.z);
-
-    //println (result.x + ", " + result.y + ", " + result.z);
-    return result;
-  }
-  
-  void rotateTo(PVector a)
-  {
-    PVector rotateValues = this.findAngles(a,myDirection);
-    if (!Float.isNaN(rotateValues.x))
-      rotateX(rotateValues.x);
-    if (!Float.isNaN(rotateValues.y))
-      rotateY(rotateValues.y);
-    if (!Float.isNaN(rotateValues.z))
-      rotateZ(rotateValues.z);
-    
-  }
-  
-  float angleBetween(PVector a, PVector b)
-  {
-    return (float)Math.acos(a.dot(b) / a.mag() / b.mag());
-  }
-  
-
 }
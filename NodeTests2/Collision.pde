@@ -1,4 +1,192 @@
 interface Collideable
 {
-  void collide();
+  void collide(Ball ball);
+
+  // bounding sphere in world space (the frame the scene graph is drawn in,
+  // before viewMatrix), used by the broad phase
+  PVector collisionCenter();
+  float collisionRadius();
+}
+
+// The old collisionList loop was switched off; shapes only join the grid
+// when this is turned on.
+boolean shapeCollisionsON = false;
+
+final float COLLISION_CELL_SIZE = 100;
+
+CollisionGrid collisionGrid;
+List<Collideable> collisionCandidates = new ArrayList<Collideable>();
+
+// Rebuilds the grid from the players (and shapes) and runs the narrow phase
+// only for objects whose cells overlap a ball's.
+void resolveCollisions()
+{
+  if (collisionGrid == null)
+  {
+    // the field bounds are given in the universe's frame, which is rotated
+    // a quarter turn, so cover the larger extent on both axes
+    float extent = max(max(abs(LOWER_X_BOUND), abs(UPPER_X_BOUND)),
+                       max(abs(LOWER_Z_BOUND), abs(UPPER_Z_BOUND)));
+    collisionGrid = new CollisionGrid(-extent, -extent, extent, extent, COLLISION_CELL_SIZE);
+  }
+
+  collisionGrid.clear();
+  for (int i = 0; i < players.size(); i++)
+    collisionGrid.insert(players.get(i));
+  if (shapeCollisionsON)
+  {
+    synchronized (collisionList)
+    {
+      for (int i = 0; i < collisionList.size(); i++)
+        collisionGrid.insert(collisionList.get(i));
+    }
+  }
+  collisionGrid.build();
+
+  for (int b = 0; b < balls.size(); b++)
+  {
+    Ball ball = balls.get(b);
+    PVector p = ball.worldPosition();
+    collisionGrid.query(p.x, p.z, ball.radius, collisionCandidates);
+    for (int i = 0; i < collisionCandidates.size(); i++)
+    {
+      Collideable c = collisionCandidates.get(i);
+      PVector center = c.collisionCenter();
+      float reach = c.collisionRadius() + ball.radius;
+      float dx = center.x - p.x;
+      float dy = center.y - p.y;
+      float dz = center.z - p.z;
+      if (dx * dx + dy * dy + dz * dz <= reach * reach)
+      {
+        float x = ball.position.x, y = ball.position.y, z = ball.position.z;
+        c.collide(ball);
+        // a player that touches the ball resets it, and the other candidates
+        // were found for where it was
+        if (ball.position.x != x || ball.position.y != y || ball.position.z != z)
+        {
+          ball.update();
+          break;
+        }
+      }
+    }
+  }
+}
+
+// Uniform grid over the x/z plane. Objects are bucketed into every cell
+// their bounding circle touches; anything outside the bounds is clamped to
+// the border cells. The buckets are rebuilt each frame into flat arrays
+// with a counting sort, so there is no per-frame allocation once the
+// arrays have grown to fit.
+class CollisionGrid
+{
+  private float myMinX, myMinZ, myCellSize;
+  private int myColumns, myRows;
+
+  private int myCount = 0;
+  private Collideable[] myItems = new Collideable[16];
+  private int[] myBounds = new int[16 * 4];   // minColumn, minRow, maxColumn, maxRow
+  private int[] myQueryStamps = new int[16];
+  private int myQuery = 0;
+
+  private int[] myCellStart;
+  private int[] myCellItems = new int[16];
+
+  CollisionGrid(float minX, float minZ, float maxX, float maxZ, float cellSize)
+  {
+    myMinX = minX;
+    myMinZ = minZ;
+    myCellSize = cellSize;
+    myColumns = max(1, ceil((maxX - minX) / cellSize));
+    myRows = max(1, ceil((maxZ - minZ) / cellSize));
+    myCellStart = new int[myColumns * myRows + 1];
+  }
+
+  void clear()
+  {
+    for (int i = 0; i < myCount; i++)
+      myItems[i] = null;
+    myCount = 0;
+  }
+
+  void insert(Collideable c)
+  {
+    if (myCount == myItems.length)
+    {
+      myItems = (Collideable[]) expand(myItems);
+      myBounds = expand(myBounds, myItems.length * 4);
+      myQueryStamps = expand(myQueryStamps, myItems.length);
+    }
+    PVector center = c.collisionCenter();
+    float r = c.collisionRadius();
+    myItems[myCount] = c;
+    myBounds[myCount * 4]     = column(center.x - r);
+    myBounds[myCount * 4 + 1] = row(center.z - r);
+    myBounds[myCount * 4 + 2] = column(center.x + r);
+    myBounds[myCount * 4 + 3] = row(center.z + r);
+    myQueryStamps[myCount] = myQuery;
+    myCount++;
+  }
+
+  void build()
+  {
+    Arrays.fill(myCellStart, 0);
+    for (int i = 0; i < myCount; i++)
+    {
+      for (int row = myBounds[i * 4 + 1]; row <= myBounds[i * 4 + 3]; row++)
+        for (int col = myBounds[i * 4]; col <= myBounds[i * 4 + 2]; col++)
+          myCellStart[row * myColumns + col + 1]++;
+    }
+    for (int cell = 0; cell < myColumns * myRows; cell++)
+      myCellStart[cell + 1] += myCellStart[cell];
+    int total = myCellStart[myColumns * myRows];
+    if (myCellItems.length < total)
+      myCellItems = new int[max(total, myCellItems.length * 2)];
+
+    // myCellStart[cell] is used as the fill cursor and restored afterwards
+    for (int i = 0; i < myCount; i++)
+    {
+      for (int row = myBounds[i * 4 + 1]; row <= myBounds[i * 4 + 3]; row++)
+        for (int col = myBounds[i * 4]; col <= myBounds[i * 4 + 2]; col++)
+          myCellItems[myCellStart[row * myColumns + col]++] = i;
+    }
+    for (int cell = myColumns * myRows; cell > 0; cell--)
+      myCellStart[cell] = myCellStart[cell - 1];
+    myCellStart[0] = 0;
+  }
+
+  // Fills result with every object sharing a cell with the given circle,
+  // each one once.
+  void query(float x, float z, float radius, List<Collideable> result)
+  {
+    result.clear();
+    myQuery++;
+    int minColumn = column(x - radius), maxColumn = column(x + radius);
+    int minRow = row(z - radius), maxRow = row(z + radius);
+    for (int row = minRow; row <= maxRow; row++)
+    {
+      for (int col = minColumn; col <= maxColumn; col++)
+      {
+        int cell = row * myColumns + col;
+        for (int k = myCellStart[cell]; k < myCellStart[cell + 1]; k++)
+        {
+          int item = myCellItems[k];
+          if (myQueryStamps[item] != myQuery)
+          {
+            myQueryStamps[item] = myQuery;
+            result.add(myItems[item]);
+          }
+        }
+      }
+    }
+  }
+
+  private int column(float x)
+  {
+    return constrain(floor((x - myMinX) / myCellSize), 0, myColumns - 1);
+  }
+
+  private int row(float z)
+  {
+    return constrain(floor((z - myMinZ) / myCellSize), 0, myRows - 1);
+  }
 }
@@ -0,0 +1,325 @@
+static final int HOME_STAND = 0;
+static final int AWAY_STAND = 1;
+
+Crowd crowd;
+
+// Everyone in the stands. A head is a slot in the arrays below rather than
+// an object of its own, so thousands of them cost a few flat arrays, and the
+// cheer, shiver and groan animations run over those arrays once a frame.
+// Heads close enough to show detail are drawn from two shared meshes; the
+// rest are flat impostor quads batched into one shape.
+class Crowd
+{
+  private static final float GROAN_INCREMENT = TWO_PI / 500.0;
+
+  float radius;
+  // heads that would be drawn smaller than this many pixels across become
+  // impostors
+  float impostorPixels = 16;
+
+  private int myCount = 0;
+  private int[] myStand = new int[64];
+  private float[] myX = new float[64];
+  private float[] myY = new float[64];
+  private float[] myZ = new float[64];
+  private float[] myFacingX = new float[64];
+  private float[] myFacingZ = new float[64];
+
+  // each head's cheer and shiver phase and step, its groan phase, and when
+  // each animation stops on the scheduler's clock
+  private float[] myPhase = new float[64];
+  private float[] myIncrement = new float[64];
+  private float[] myGroanPhase = new float[64];
+  private long[] myCheerUntil = new long[64];
+  private long[] myShiverUntil = new long[64];
+  private long[] myGroanUntil = new long[64];
+
+  // worked out by update() for draw()
+  private float[] myOffsetX = new float[64];
+  private float[] myOffsetY = new float[64];
+  private float[] myTilt = new float[64];
+  private int[] myImpostors = new int[64];
+  private int myImpostorCount = 0;
+
+  private Mesh myHead;
+  private Mesh myFeatures;
+  private PImage myImpostor;
+
+  Crowd(float radius)
+  {
+    this.radius = radius;
+    String key = "crowd " + radius;
+    myHead = cachedMesh(key + " head");
+    if (myHead == null)
+    {
+      MeshBuilder builder = new MeshBuilder();
+      addSphere(builder, 0, 0, 0, radius, 12);
+      myHead = cacheMesh(key + " head", builder.build());
+
+      // two eyes and a mouth, facing +x
+      builder = new MeshBuilder();
+      addSphere(builder, radius * .8, -radius / 2, radius * .5, radius / 6, 6);
+      addSphere(builder, radius * .8, -radius / 2, radius * -.5, radius / 6, 6);
+      addSphere(builder, radius * .8, radius / 2, 0, radius / 6, 6);
+      myFeatures = cacheMesh(key + " features", builder.build());
+    }
+    else
+    {
+      myFeatures = cachedMesh(key + " features");
+    }
+    myImpostor = buildImpostor(32);
+  }
+
+  int size()
+  {
+    return myCount;
+  }
+
+  // how many heads were drawn as impostors last frame
+  int impostors()
+  {
+    return myImpostorCount;
+  }
+
+  int add(int stand, float x, float y, float z, float facingX, float facingZ)
+  {
+    if (myCount == myX.length)
+      grow();
+    int i = myCount++;
+    float length = sqrt(facingX * facingX + facingZ * facingZ);
+    myStand[i] = stand;
+    myX[i] = x;
+    myY[i] = y;
+    myZ[i] = z;
+    myFacingX[i] = facingX / length;
+    myFacingZ[i] = facingZ / length;
+    myIncrement[i] = TWO_PI / 25.0;
+    return i;
+  }
+
+  // Fills a stand with rows of seatsPerRow heads. The front row is centred
+  // on (x, z) and looks along facing; each row behind it is spacing further
+  // back and rise higher, shifted half a seat so it sees between the heads
+  // in front.
+  void addStand(int stand, float x, float z, float facingX, float facingZ,
+                int rows, int seatsPerRow, float spacing, float rise)
+  {
+    float length = sqrt(facingX * facingX + facingZ * facingZ);
+    facingX /= length;
+    facingZ /= length;
+    float alongX = -facingZ, alongZ = facingX;
+    for (int row = 0; row < rows; row++)
+    {
+      float back = row * spacing;
+      float y = -radius - row * rise;
+      for (int seat = 0; seat < seatsPerRow; seat++)
+      {
+        float offset = (seat - (seatsPerRow - 1) / 2.0 + (row % 2) / 2.0) * spacing;
+        add(stand, x + alongX * offset - facingX * back, y, z + alongZ * offset - facingZ * back,
+            facingX, facingZ);
+      }
+    }
+  }
+
+  void cheer(int stand)
+  {
+    long now = scheduler.now();
+    for (int i = 0; i < myCount; i++)
+    {
+      if (myStand[i] != stand)
+        continue;
+      int duration = int(random(3, 5));
+      float frequency = int(random(15, 25));
+      myCheerUntil[i] = now + duration * 1000;
+      myIncrement[i] = TWO_PI / frequency;
+    }
+  }
+
+  void shiver(int stand)
+  {
+    long now = scheduler.now();
+    for (int i = 0; i < myCount; i++)
+    {
+      if (myStand[i] != stand)
+        continue;
+      int duration = int(random(4, 5));
+      float frequency = int(random(15, 20));
+      myShiverUntil[i] = now + duration * 1000;
+      myIncrement[i] = TWO_PI / frequency;
+    }
+  }
+
+  void groan(int stand)
+  {
+    long now = scheduler.now();
+    for (int i = 0; i < myCount; i++)
+    {
+      if (myStand[i] != stand)
+        continue;
+      myGroanUntil[i] = now + 1000;
+      myGroanPhase[i] = 0;
+    }
+  }
+
+  // moves each head for the animations it is in, a frame at a time
+  void update()
+  {
+    long now = scheduler.now();
+    for (int i = 0; i < myCount; i++)
+    {
+      float offsetX = 0, offsetY = 0, tilt = 0;
+      if (myCheerUntil[i] > now)
+      {
+        offsetY = -radius * abs(sin(myPhase[i]));
+        myPhase[i] += myIncrement[i];
+      }
+      if (myShiverUntil[i] > now)
+      {
+        offsetX = -3 * sin(100 * myPhase[i]);
+        myPhase[i] += myIncrement[i];
+      }
+      if (myGroanUntil[i] > now)
+      {
+        tilt = -10 * sin(myGroanPhase[i]);
+        if (10 * sin(myGroanPhase[i]) < PI / 2)
+          myGroanPhase[i] += GROAN_INCREMENT;
+      }
+      myOffsetX[i] = offsetX;
+      myOffsetY[i] = offsetY;
+      myTilt[i] = tilt;
+    }
+  }
+
+  // Draws the crowd in the frame viewMatrix has been applied to.
+  void draw()
+  {
+    update();
+
+    // where the default camera sits once viewMatrix is applied
+    PMatrix3D v = viewMatrix;
+    float eyeX = width / 2.0, eyeY = height / 2.0;
+    float eyeZ = (height / 2.0) / tan(PI / 6);
+    float scale = sqrt(v.m00 * v.m00 + v.m01 * v.m01 + v.m02 * v.m02);
+    float limit = 2 * radius * scale * eyeZ / impostorPixels;
+
+    noStroke();
+    myImpostorCount = 0;
+    for (int i = 0; i < myCount; i++)
+    {
+      float x = myX[i] + myOffsetX[i], y = myY[i] + myOffsetY[i], z = myZ[i];
+      float dx = v.m00 * x + v.m01 * y + v.m02 * z + v.m03 - eyeX;
+      float dy = v.m10 * x + v.m11 * y + v.m12 * z + v.m13 - eyeY;
+      float dz = v.m20 * x + v.m21 * y + v.m22 * z + v.m23 - eyeZ;
+      if (dx * dx + dy * dy + dz * dz > limit * limit)
+      {
+        if (myImpostorCount == myImpostors.length)
+          myImpostors = expand(myImpostors);
+        myImpostors[myImpostorCount++] = i;
+        continue;
+      }
+
+      float fx = myFacingX[i], fz = myFacingZ[i];
+      pushMatrix();
+      translate(x, y, z);
+      if (myTilt[i] != 0)
+        rotateX(myTilt[i]);
+      // turn +x onto the facing direction
+      applyMatrix(fx, 0, -fz, 0,
+                  0,  1,   0, 0,
+                  fz, 0,  fx, 0,
+                  0,  0,   0, 1);
+      fill(255, 255, 255);
+      myHead.draw();
+      fill(0, 0, 0);
+      myFeatures.draw();
+      popMatrix();
+    }
+
+    if (myImpostorCount > 0)
+      drawImpostors(v, scale);
+  }
+
+  // one quad per far head, all in one shape, turned to face the screen
+  private void drawImpostors(PMatrix3D v, float scale)
+  {
+    float rightX = v.m00 / scale * radius, rightY = v.m01 / scale * radius, rightZ = v.m02 / scale * radius;
+    float upX = v.m10 / scale * radius, upY = v.m11 / scale * radius, upZ = v.m12 / scale * radius;
+
+    beginShape(QUADS);
+    textureMode(NORMALIZED);
+    texture(myImpostor);
+    for (int k = 0; k < myImpostorCount; k++)
+    {
+      int i = myImpostors[k];
+      float x = myX[i] + myOffsetX[i], y = myY[i] + myOffsetY[i], z = myZ[i];
+      vertex(x - rightX - upX, y - rightY - upY, z - rightZ - upZ, 0, 0);
+      vertex(x + rightX - upX, y + rightY - upY, z + rightZ - upZ, 1, 0);
+      vertex(x + rightX + upX, y + rightY + upY, z + rightZ + upZ, 1, 1);
+      vertex(x - rightX + upX, y - rightY + upY, z - rightZ + upZ, 0, 1);
+    }
+    endShape();
+  }
+
+  // a head seen from the front: white disc, black eyes and mouth
+  private PImage buildImpostor(int size)
+  {
+    PImage image = createImage(size, size, ARGB);
+    float r = size / 2.0;
+    float feature = r / 6;
+    image.loadPixels();
+    for (int py = 0; py < size; py++)
+    {
+      for (int px = 0; px < size; px++)
+      {
+        float x = px + 0.5 - r, y = py + 0.5 - r;
+        int c = 0x00000000;
+        if (x * x + y * y <= r * r)
+        {
+          c = 0xFFFFFFFF;
+          if (dist(x, y, -r * .5, -r * .5) <= feature || dist(x, y, r * .5, -r * .5) <= feature
+              || dist(x, y, 0, r * .5) <= feature)
+            c = 0xFF000000;
+        }
+        image.pixels[py * size + px] = c;
+      }
+    }
+    image.updatePixels();
+    return image;
+  }
+
+  private void addSphere(MeshBuilder builder, float cx, float cy, float cz, float r, int detail)
+  {
+    for (int lat = 0; lat < detail; lat++)
+    {
+      float a0 = PI * lat / detail - HALF_PI;
+      float a1 = PI * (lat + 1) / detail - HALF_PI;
+      builder.beginStrip(QUAD_STRIP, false);
+      for (int lon = 0; lon <= detail; lon++)
+      {
+        float b = TWO_PI * lon / detail;
+        builder.vertex(cx + r * cos(a0) * cos(b), cy + r * sin(a0), cz + r * cos(a0) * sin(b));
+        builder.vertex(cx + r * cos(a1) * cos(b), cy + r * sin(a1), cz + r * cos(a1) * sin(b));
+      }
+    }
+  }
+
+  private void grow()
+  {
+    int size = myX.length * 2;
+    myStand = expand(myStand, size);
+    myX = expand(myX, size);
+    myY = expand(myY, size);
+    myZ = expand(myZ, size);
+    myFacingX = expand(myFacingX, size);
+    myFacingZ = expand(myFacingZ, size);
+    myPhase = expand(myPhase, size);
+    myIncrement = expand(myIncrement, size);
+    myGroanPhase = expand(myGroanPhase, size);
+    myCheerUntil = (long[]) expand((Object) myCheerUntil, size);
+    myShiverUntil = (long[]) expand((Object) myShiverUntil, size);
+    myGroanUntil = (long[]) expand((Object) myGroanUntil, size);
+    myOffsetX = expand(myOffsetX, size);
+    myOffsetY = expand(myOffsetY, size);
+    myTilt = expand(myTilt, size);
+  }
+}
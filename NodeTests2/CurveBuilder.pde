@@ -0,0 +1,147 @@
+// Builds a player curve from mouse positions as they arrive. Points closer
+// than minSpacing to the last one are dropped, and a point is only kept when
+// leaving it out would move the line by more than tolerance from one of the
+// points it stands for, so a stroke of hundreds of mouse events becomes a
+// few dozen points. The spline players will run along is sampled as each
+// stretch of it is settled, and drawn with the unsettled end as one
+// polyline.
+CurveBuilder curveBuilder = new CurveBuilder();
+
+class CurveBuilder
+{
+  // spline samples per segment in the preview
+  static final int PREVIEW_SAMPLES = 8;
+  // raw points held back at most before one is kept anyway
+  static final int MAX_PENDING = 64;
+
+  float minSpacing = 4;
+  float tolerance = 2;
+
+  private List<PVector> myPoints = new ArrayList<PVector>();
+  private float[] myPending = new float[MAX_PENDING * 2];
+  private int myPendingCount = 0;
+  private int myRawCount = 0;
+
+  private float[] myPreview = new float[64];
+  private int myPreviewCount = 0;
+  private int mySettledSegments = 0;
+
+  void begin(float x, float y)
+  {
+    myPoints = new ArrayList<PVector>();
+    myPendingCount = 0;
+    myRawCount = 1;
+    myPreviewCount = 0;
+    mySettledSegments = 0;
+    keep(x, y);
+  }
+
+  void add(float x, float y)
+  {
+    myRawCount++;
+    float lastX, lastY;
+    if (myPendingCount > 0)
+    {
+      lastX = myPending[myPendingCount * 2 - 2];
+      lastY = myPending[myPendingCount * 2 - 1];
+    }
+    else
+    {
+      PVector last = myPoints.get(myPoints.size() - 1);
+      lastX = last.x;
+      lastY = last.y;
+    }
+    if (dist(lastX, lastY, x, y) < minSpacing)
+      return;
+
+    // would a straight line from the last kept point to here still pass
+    // close to everything drawn since?
+    if (myPendingCount == MAX_PENDING || !coversPending(x, y))
+    {
+      myPendingCount--;
+      keep(myPending[myPendingCount * 2], myPending[myPendingCount * 2 + 1]);
+    }
+    myPending[myPendingCount * 2] = x;
+    myPending[myPendingCount * 2 + 1] = y;
+    myPendingCount++;
+  }
+
+  // Adds the last point and returns the simplified curve. It stays on show
+  // in the preview until the next begin().
+  List<PVector> finish(float x, float y)
+  {
+    add(x, y);
+    if (myPendingCount > 0)
+    {
+      myPendingCount--;
+      keep(myPending[myPendingCount * 2], myPending[myPendingCount * 2 + 1]);
+    }
+    return myPoints;
+  }
+
+  // mouse events seen for this curve, kept or not
+  int rawCount()
+  {
+    return myRawCount;
+  }
+
+  List<PVector> points()
+  {
+    return myPoints;
+  }
+
+  // Draws the curve flat on the field as one polyline: the settled spline,
+  // then straight on through the points kept since and the latest one.
+  void draw()
+  {
+    if (myPoints.isEmpty())
+      return;
+    beginShape();
+    for (int i = 0; i < myPreviewCount; i++)
+      vertex(myPreview[i * 2], 0, myPreview[i * 2 + 1]);
+    for (int i = mySettledSegments == 0 ? 0 : mySettledSegments + 2; i < myPoints.size(); i++)
+      vertex(myPoints.get(i).x, 0, myPoints.get(i).y);
+    if (myPendingCount > 0)
+      vertex(myPending[myPendingCount * 2 - 2], 0, myPending[myPendingCount * 2 - 1]);
+    endShape();
+  }
+
+  private boolean coversPending(float x, float y)
+  {
+    PVector anchor = myPoints.get(myPoints.size() - 1);
+    float dx = x - anchor.x, dy = y - anchor.y;
+    float length = sqrt(dx * dx + dy * dy);
+    for (int i = 0; i < myPendingCount; i++)
+    {
+      float px = myPending[i * 2] - anchor.x, py = myPending[i * 2 + 1] - anchor.y;
+      float distance = length > 0 ? abs(px * dy - py * dx) / length : sqrt(px * px + py * py);
+      if (distance > tolerance)
+        return false;
+    }
+    return true;
+  }
+
+  private void keep(float x, float y)
+  {
+    myPoints.add(new PVector(x, y));
+    myPendingCount = 0;
+
+    // a player runs segment k (points k to k + 1) once point k + 2 is known,
+    // from the second point onwards
+    while (mySettledSegments + 3 < myPoints.size())
+    {
+      int k = mySettledSegments + 1;
+      PVector a = myPoints.get(k - 1), b = myPoints.get(k), c = myPoints.get(k + 1), d = myPoints.get(k + 2);
+      if (myPreview.length < (myPreviewCount + PREVIEW_SAMPLES + 1) * 2)
+        myPreview = expand(myPreview, myPreview.length * 2);
+      for (int i = (myPreviewCount == 0 ? 0 : 1); i <= PREVIEW_SAMPLES; i++)
+      {
+        float t = i / (float) PREVIEW_SAMPLES;
+        myPreview[myPreviewCount * 2] = catmullRom(a.x, b.x, c.x, d.x, t);
+        myPreview[myPreviewCount * 2 + 1] = catmullRom(a.y, b.y, c.y, d.y, t);
+        myPreviewCount++;
+      }
+      mySettledSegments++;
+    }
+  }
+}
@@ -0,0 +1,258 @@
+// Binary curve format. A text curve ("[ x, y, z ]" per line) is converted
+// once into a flat float array, saved next to it as <name>.curve and
+// memory-mapped on later runs. Curves drawn in the sketch are saved in the
+// same format. Only x and y are kept: curves lie flat on the field and z is
+// always 0.
+//
+// Layout (big endian):
+//   int magic, int version, int pointCount, pointCount * (float x, float y)
+
+static final int CURVE_MAGIC   = 0x43525645;   // "CRVE"
+static final int CURVE_VERSION = 1;
+static final int CURVE_HEADER  = 12;
+
+List<PVector> getCurveFromText (String s)
+{
+  return getCurveFromFile(new File(dataPath(s)));
+}
+
+// Reads a .curve file, or a text curve through its .curve copy, which is
+// (re)written whenever it is missing or older than the text.
+static List<PVector> getCurveFromFile (File f)
+{
+  float[] points = readCurve(f);
+  List<PVector> result = new ArrayList<PVector>(points.length / 2);
+  for (int i = 0; i < points.length; i += 2)
+    result.add(new PVector(points[i], points[i + 1]));
+  return result;
+}
+
+static float[] readCurve(File f)
+{
+  File binary = f.getName().endsWith(".curve")
+              ? f : new File(f.getAbsoluteFile().getParentFile(), curveFileName(f.getName()));
+  if (binary.exists() && (binary == f || !f.exists() || binary.lastModified() >= f.lastModified()))
+  {
+    float[] points = mapCurve(binary);
+    if (points != null)
+      return points;
+    // there is no text to fall back on, and parsing the binary as text
+    // would only give garbage points
+    if (binary == f)
+      throw new RuntimeException(f + " is not a valid curve file");
+  }
+
+  float[] points;
+  try
+  {
+    points = parseCurveText(readAll(f));
+  }
+  catch (IOException e)
+  {
+    throw new RuntimeException("Could not read curve " + f, e);
+  }
+  if (binary != f)
+  {
+    try
+    {
+      saveCurve(binary, points);
+    }
+    catch (IOException e)
+    {
+      println("Could not save " + binary + ": " + e.getMessage());
+    }
+  }
+  return points;
+}
+
+static String curveFileName(String textName)
+{
+  int dot = textName.lastIndexOf('.');
+  return (dot < 0 ? textName : textName.substring(0, dot)) + ".curve";
+}
+
+// x, y pairs from a .curve file, or null if it is not one
+static float[] mapCurve(File f)
+{
+  try
+  {
+    FileInputStream in = new FileInputStream(f);
+    try
+    {
+      FileChannel channel = in.getChannel();
+      ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (mapped.limit() < CURVE_HEADER || mapped.getInt(0) != CURVE_MAGIC || mapped.getInt(4) != CURVE_VERSION)
+        return null;
+      int count = mapped.getInt(8);
+      if (count < 0 || CURVE_HEADER + (long) count * 8 > mapped.limit())
+        return null;
+      float[] points = new float[count * 2];
+      mapped.position(CURVE_HEADER);
+      mapped.asFloatBuffer().get(points);
+      return points;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  catch (IOException e)
+  {
+    println("Could not map " + f + ": " + e.getMessage());
+    return null;
+  }
+}
+
+static void saveCurve(File f, float[] points) throws IOException
+{
+  DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+  try
+  {
+    out.writeInt(CURVE_MAGIC);
+    out.writeInt(CURVE_VERSION);
+    out.writeInt(points.length / 2);
+    for (int i = 0; i < points.length; i++)
+      out.writeFloat(points[i]);
+  }
+  finally
+  {
+    out.close();
+  }
+}
+
+static void saveCurve(File f, List<PVector> curve) throws IOException
+{
+  float[] points = new float[curve.size() * 2];
+  for (int i = 0; i < curve.size(); i++)
+  {
+    points[i * 2] = curve.get(i).x;
+    points[i * 2 + 1] = curve.get(i).y;
+  }
+  saveCurve(f, points);
+}
+
+// Saves a drawn curve into the data folder as drawn<n>.curve, with the first
+// n not taken, so it can be handed to Player(String) or --headless later.
+File saveDrawnCurve(List<PVector> curve)
+{
+  File f;
+  int n = 1;
+  do
+  {
+    f = new File(dataPath("drawn" + n + ".curve"));
+    n++;
+  }
+  while (f.exists());
+  try
+  {
+    f.getParentFile().mkdirs();
+    saveCurve(f, curve);
+    return f;
+  }
+  catch (IOException e)
+  {
+    println("Could not save " + f + ": " + e.getMessage());
+    return null;
+  }
+}
+
+// The first two numbers on each line of a text curve, scanned straight from
+// the bytes: no line Strings, no split() and no boxed Floats.
+static float[] parseCurveText(byte[] text)
+{
+  float[] points = new float[256];
+  int count = 0;
+  int onLine = 0;
+  int i = 0;
+  while (i < text.length)
+  {
+    byte c = text[i];
+    if (c == '\n')
+    {
+      // a line with a single number gives no point
+      if (onLine == 1)
+        count--;
+      onLine = 0;
+      i++;
+      continue;
+    }
+    if (!(c == '-' || c == '+' || c == '.' || (c >= '0' && c <= '9')))
+    {
+      i++;
+      continue;
+    }
+
+    boolean negative = c == '-';
+    if (c == '-' || c == '+')
+      i++;
+    long mantissa = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for (; i < text.length; i++)
+    {
+      c = text[i];
+      if (c >= '0' && c <= '9')
+      {
+        if (mantissa < Long.MAX_VALUE / 10)
+        {
+          mantissa = mantissa * 10 + (c - '0');
+          if (fraction)
+            exponent--;
+        }
+        else if (!fraction)
+        {
+          exponent++;
+        }
+      }
+      else if (c == '.' && !fraction)
+      {
+        fraction = true;
+      }
+      else
+      {
+        break;
+      }
+    }
+    if (i < text.length && (text[i] == 'e' || text[i] == 'E'))
+    {
+      i++;
+      boolean negativeExponent = i < text.length && text[i] == '-';
+      if (i < text.length && (text[i] == '-' || text[i] == '+'))
+        i++;
+      int e = 0;
+      for (; i < text.length && text[i] >= '0' && text[i] <= '9'; i++)
+        e = e * 10 + (text[i] - '0');
+      exponent += negativeExponent ? -e : e;
+    }
+
+    if (onLine < 2)
+    {
+      // 10^-k is not exact, so a negative exponent divides by 10^k instead
+      double value = exponent == 0 ? mantissa
+                   : exponent > 0 ? mantissa * Math.pow(10, exponent)
+                   : mantissa / Math.pow(10, -exponent);
+      if (count == points.length)
+        points = expand(points);
+      points[count++] = (float) (negative ? -value : value);
+    }
+    onLine++;
+  }
+  if (onLine == 1)
+    count--;
+  return subset(points, 0, count);
+}
+
+static byte[] readAll(File f) throws IOException
+{
+  DataInputStream in = new DataInputStream(new FileInputStream(f));
+  try
+  {
+    byte[] bytes = new byte[(int) f.length()];
+    in.readFully(bytes);
+    return bytes;
+  }
+  finally
+  {
+    in.close();
+  }
+}
@@ -0,0 +1,195 @@
+// Matches without a renderer. The ball follows the rules in SoccerUtil, the
+// same functions the game calls, and the players run along the same
+// PlayerPaths; only the world positions are worked out here instead of read
+// back from the scene graph, so a match can be stepped as fast as the CPU
+// allows, with no window and no OpenGL.
+//
+// Everything here is static: PApplet is an Applet, which cannot even be
+// constructed on a machine without a display.
+
+// the universe's PartialRotateTransform about y, as setup() builds it
+static final float UNIVERSE_ROTATION_Y = PI / UNIVERSE_ROTATE_FACTOR;
+
+// Catmull-Rom, the spline curvePoint() draws with the default tightness
+static float catmullRom(float a, float b, float c, float d, float t)
+{
+  float t2 = t * t;
+  float t3 = t2 * t;
+  return 0.5 * ((2 * b)
+              + (-a + c) * t
+              + (2 * a - 5 * b + 4 * c - d) * t2
+              + (-a + 3 * b - 3 * c + d) * t3);
+}
+
+static class HeadlessPlayer
+{
+  private PlayerPath myPath;
+  float radius = 30;
+  float speed = 5.0;
+  float travel = 0;
+  // where Player keeps myLocation: on its path, radius above the ground
+  PVector location = new PVector();
+
+  HeadlessPlayer(PlayerPath path)
+  {
+    myPath = path;
+    location.y = -radius;
+    myPath.locate(travel, location);
+  }
+
+  // same as Player.step()
+  void step(float frames)
+  {
+    travel = myPath.wrap(travel + speed * frames);
+    myPath.locate(travel, location);
+  }
+}
+
+static class HeadlessMatch
+{
+  // the universe's frame, like Ball.position and Ball.speed
+  PVector ballPosition = new PVector();
+  PVector ballSpeed = new PVector();
+  float ballRadius = BALL_RADIUS;
+  List<HeadlessPlayer> players = new ArrayList<HeadlessPlayer>();
+
+  int homeGoals = 0;
+  int awayGoals = 0;
+  int collisions = 0;
+  int boos = 0;
+  long steps = 0;
+
+  // stands in for the keyboard and the microphone: each step there is this
+  // chance of one w/a/s/d nudge or a blow, as keyPressed() and draw() post them
+  float inputChance = 0.05;
+  private Random myInput;
+
+  private float myCos = cos(UNIVERSE_ROTATION_Y);
+  private float mySin = sin(UNIVERSE_ROTATION_Y);
+  private PVector myBallWorld = new PVector();
+
+  HeadlessMatch(PlayerPath[] paths)
+  {
+    for (PlayerPath path : paths)
+      players.add(new HeadlessPlayer(path));
+    dropBall(ballPosition, ballSpeed);
+  }
+
+  // a match played with simulated input, the same every time for one seed
+  HeadlessMatch(PlayerPath[] paths, long seed)
+  {
+    this(paths);
+    myInput = new Random(seed);
+  }
+
+  void run(long count, float frames)
+  {
+    for (long i = 0; i < count; i++)
+      step(frames);
+  }
+
+  // the ball's part of Simulation.step(), then resolveCollisions(), keeping
+  // score where the game would cheer and boo
+  void step(float frames)
+  {
+    steps++;
+    if (myInput != null)
+      input(frames);
+
+    stepBall(ballPosition, ballSpeed, frames);
+    boundBall(ballPosition, ballSpeed, ballRadius);
+    int stand = goalScored(ballPosition, ballRadius);
+    if (stand == HOME_STAND)
+      homeGoals++;
+    else if (stand == AWAY_STAND)
+      awayGoals++;
+    if (stand >= 0)
+      resetBall(ballPosition, ballSpeed);
+
+    for (int i = 0; i < players.size(); i++)
+      players.get(i).step(frames);
+
+    // Ball.worldPosition(): the ball lives inside the universe's rotation,
+    // the players outside it
+    myBallWorld.set(myCos * ballPosition.x + mySin * ballPosition.z,
+                    ballPosition.y,
+                    -mySin * ballPosition.x + myCos * ballPosition.z);
+    for (int i = 0; i < players.size(); i++)
+    {
+      HeadlessPlayer p = players.get(i);
+      if (touchesBall(p.location, p.radius, myBallWorld, ballRadius))
+      {
+        collisions++;
+        boos++;
+        resetBall(ballPosition, ballSpeed);
+        // as resolveCollisions() does, stop once the ball has moved
+        break;
+      }
+    }
+  }
+
+  private void input(float frames)
+  {
+    if (myInput.nextFloat() >= inputChance * frames)
+      return;
+    int which = myInput.nextInt(5);
+    if (which < 4)
+      nudgeBall(ballSpeed, "adws".charAt(which));
+    else
+      blowBall(ballSpeed);
+  }
+}
+
+// Entry point for "--headless [--matches n] [steps] [curve files...]": runs
+// one match, or n seeded matches in parallel (see MatchBatch), on the given
+// player curves (curve.txt and curve2.txt by default) without opening a
+// window and reports how fast it ran. Run it from the sketch folder so the
+// data folder can be found.
+static void runHeadless(String[] args)
+{
+  long count = -1;
+  int matches = 0;
+  List<List<PVector>> curves = new ArrayList<List<PVector>>();
+  for (int i = 0; i < args.length; i++)
+  {
+    if (args[i].equals("--headless"))
+      continue;
+    if (args[i].equals("--matches") && i + 1 < args.length)
+      matches = Integer.parseInt(args[++i]);
+    else if (args[i].matches("\\d+"))
+      count = Long.parseLong(args[i]);
+    else
+      curves.add(getCurveFromFile(headlessDataFile(args[i])));
+  }
+  if (curves.isEmpty())
+  {
+    curves.add(getCurveFromFile(headlessDataFile("curve.txt")));
+    curves.add(getCurveFromFile(headlessDataFile("curve2.txt")));
+  }
+
+  if (matches > 0)
+  {
+    MatchBatch batch = new MatchBatch(curves, count < 0 ? MatchBatch.MATCH_STEPS : count);
+    batch.run(matches);
+    println(batch.report());
+    return;
+  }
+
+  if (count < 0)
+    count = 1000000;
+  HeadlessMatch match = new HeadlessMatch(playerPaths(curves));
+  long start = System.nanoTime();
+  match.run(count, REFERENCE_RATE / SIMULATION_RATE);
+  double seconds = (System.nanoTime() - start) / 1e9;
+
+  double simulated = count / (double) SIMULATION_RATE;
+  println(count + " steps (" + nf((float) simulated, 0, 1) + " s of play) in " + nf((float) seconds, 0, 3) + " s, "
+        + round((float) (simulated / seconds)) + "x real time");
+  println("home goals: " + match.homeGoals + ", away goals: " + match.awayGoals + ", collisions: " + match.collisions);
+}
+
+static File headlessDataFile(String name)
+{
+  File file = new File(name);
+  return file.exists() ? file : new File("data", name);
+}
@@ -0,0 +1,114 @@
+// Plays many independent HeadlessMatches at once. Each match owns all of its
+// state and is seeded from its index, so a batch gives the same totals
+// whatever the number of cores. The matches are split in halves on a
+// fork-join pool until a slice is small enough to play on one thread.
+static class MatchBatch
+{
+  // ninety minutes of play
+  static final long MATCH_STEPS = (long) (90 * 60 * SIMULATION_RATE);
+
+  // built once and shared by every match in the batch
+  private PlayerPath[] myPaths;
+  private long myStepsPerMatch;
+  private long mySeed = 0;
+
+  int matches = 0;
+  long homeGoals = 0;
+  long awayGoals = 0;
+  long collisions = 0;
+  long boos = 0;
+  double seconds = 0;
+
+  MatchBatch(List<List<PVector>> curves, long stepsPerMatch)
+  {
+    this(playerPaths(curves), stepsPerMatch);
+  }
+
+  private MatchBatch(PlayerPath[] paths, long stepsPerMatch)
+  {
+    myPaths = paths;
+    myStepsPerMatch = stepsPerMatch;
+  }
+
+  void setSeed(long seed)
+  {
+    mySeed = seed;
+  }
+
+  void run(int count)
+  {
+    ForkJoinPool pool = new ForkJoinPool();
+    long start = System.nanoTime();
+    try
+    {
+      add(pool.invoke(new Slice(0, count)));
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    seconds += (System.nanoTime() - start) / 1e9;
+  }
+
+  double matchesPerSecond()
+  {
+    return seconds > 0 ? matches / seconds : 0;
+  }
+
+  String report()
+  {
+    return matches + " matches of " + myStepsPerMatch + " steps in " + nf((float) seconds, 0, 3) + " s, "
+         + nf((float) matchesPerSecond(), 0, 1) + " matches/s\n"
+         + "home goals: " + homeGoals + ", away goals: " + awayGoals
+         + ", collisions: " + collisions + ", boos: " + boos;
+  }
+
+  private void add(MatchBatch totals)
+  {
+    matches += totals.matches;
+    homeGoals += totals.homeGoals;
+    awayGoals += totals.awayGoals;
+    collisions += totals.collisions;
+    boos += totals.boos;
+  }
+
+  private MatchBatch play(int first, int last)
+  {
+    MatchBatch totals = new MatchBatch(myPaths, myStepsPerMatch);
+    float frames = REFERENCE_RATE / SIMULATION_RATE;
+    for (int i = first; i < last; i++)
+    {
+      HeadlessMatch match = new HeadlessMatch(myPaths, mySeed + i);
+      match.run(myStepsPerMatch, frames);
+      totals.matches++;
+      totals.homeGoals += match.homeGoals;
+      totals.awayGoals += match.awayGoals;
+      totals.collisions += match.collisions;
+      totals.boos += match.boos;
+    }
+    return totals;
+  }
+
+  private class Slice extends RecursiveTask<MatchBatch>
+  {
+    private int myFirst, myLast;
+
+    Slice(int first, int last)
+    {
+      myFirst = first;
+      myLast = last;
+    }
+
+    protected MatchBatch compute()
+    {
+      if (myLast - myFirst <= 1)
+        return play(myFirst, myLast);
+      int middle = (myFirst + myLast) >>> 1;
+      Slice left = new Slice(myFirst, middle);
+      left.fork();
+      MatchBatch totals = new Slice(middle, myLast).compute();
+      totals.add(left.join());
+      return totals;
+    }
+  }
+}
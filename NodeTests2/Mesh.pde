@@ -0,0 +1,155 @@
+// Tessellated geometry is built once and replayed every frame instead of
+// being recomputed in draw(). Meshes are shared between nodes with the same
+// dimensions through meshCache. Nodes look theirs up when they are built and
+// keep it, so drawing neither builds a key nor searches the map. Scenes are
+// built on the loader threads, hence the lock.
+Map<String, Mesh> meshCache = new HashMap<String, Mesh>();
+
+Mesh cachedMesh(String key)
+{
+  synchronized (meshCache)
+  {
+    return meshCache.get(key);
+  }
+}
+
+Mesh cacheMesh(String key, Mesh mesh)
+{
+  synchronized (meshCache)
+  {
+    meshCache.put(key, mesh);
+  }
+  return mesh;
+}
+
+class Mesh
+{
+  // x, y, z, u, v per vertex
+  static final int STRIDE = 5;
+
+  private final int[] myKinds;
+  private final boolean[] myTextured;
+  private final float[][] myVertices;
+
+  Mesh(int[] kinds, boolean[] textured, float[][] vertices)
+  {
+    myKinds = kinds;
+    myTextured = textured;
+    myVertices = vertices;
+  }
+
+  int vertexCount()
+  {
+    int count = 0;
+    for (int s = 0; s < myVertices.length; s++)
+      count += myVertices[s].length / STRIDE;
+    return count;
+  }
+
+  // a copy of this mesh with every position multiplied through m
+  Mesh transformed(PMatrix3D m)
+  {
+    float[][] vertices = new float[myVertices.length][];
+    for (int s = 0; s < myVertices.length; s++)
+    {
+      float[] src = myVertices[s];
+      float[] dst = new float[src.length];
+      for (int i = 0; i < src.length; i += STRIDE)
+      {
+        float x = src[i], y = src[i + 1], z = src[i + 2];
+        dst[i]     = m.m00 * x + m.m01 * y + m.m02 * z + m.m03;
+        dst[i + 1] = m.m10 * x + m.m11 * y + m.m12 * z + m.m13;
+        dst[i + 2] = m.m20 * x + m.m21 * y + m.m22 * z + m.m23;
+        dst[i + 3] = src[i + 3];
+        dst[i + 4] = src[i + 4];
+      }
+      vertices[s] = dst;
+    }
+    return new Mesh(myKinds, myTextured, vertices);
+  }
+
+  void draw()
+  {
+    draw(null);
+  }
+
+  void draw(PImage texture)
+  {
+    for (int s = 0; s < myKinds.length; s++)
+    {
+      float[] v = myVertices[s];
+      beginShape(myKinds[s]);
+      if (texture != null && myTextured[s])
+      {
+        textureMode(NORMALIZED);
+        texture(texture);
+        for (int i = 0; i < v.length; i += STRIDE)
+          vertex(v[i], v[i + 1], v[i + 2], v[i + 3], v[i + 4]);
+      }
+      else
+      {
+        for (int i = 0; i < v.length; i += STRIDE)
+          vertex(v[i], v[i + 1], v[i + 2]);
+      }
+      endShape();
+    }
+  }
+}
+
+class MeshBuilder
+{
+  private List<Integer> myKinds = new ArrayList<Integer>();
+  private List<Boolean> myTextured = new ArrayList<Boolean>();
+  private List<float[]> myVertices = new ArrayList<float[]>();
+  private float[] myCurrent;
+  private int myCount;
+
+  void beginStrip(int kind, boolean textured)
+  {
+    endStrip();
+    myKinds.add(kind);
+    myTextured.add(textured);
+    myCurrent = new float[Mesh.STRIDE * 16];
+    myCount = 0;
+  }
+
+  void vertex(float x, float y, float z)
+  {
+    vertex(x, y, z, 0, 0);
+  }
+
+  void vertex(float x, float y, float z, float u, float v)
+  {
+    if (myCount + Mesh.STRIDE > myCurrent.length)
+      myCurrent = expand(myCurrent, myCurrent.length * 2);
+    myCurrent[myCount++] = x;
+    myCurrent[myCount++] = y;
+    myCurrent[myCount++] = z;
+    myCurrent[myCount++] = u;
+    myCurrent[myCount++] = v;
+  }
+
+  Mesh build()
+  {
+    endStrip();
+    int strips = myKinds.size();
+    int[] kinds = new int[strips];
+    boolean[] textured = new boolean[strips];
+    float[][] vertices = new float[strips][];
+    for (int s = 0; s < strips; s++)
+    {
+      kinds[s] = myKinds.get(s);
+      textured[s] = myTextured.get(s);
+      vertices[s] = myVertices.get(s);
+    }
+    return new Mesh(kinds, textured, vertices);
+  }
+
+  private void endStrip()
+  {
+    if (myCurrent == null)
+      return;
+    myVertices.add(subset(myCurrent, 0, myCount));
+    myCurrent = null;
+  }
+}
@@ -1,6 +1,38 @@
 abstract class Node
 {
+  // world matrix relative to the root of the graph, excluding viewMatrix
+  protected PMatrix3D myWorldMatrix = new PMatrix3D();
+  protected PMatrix3D myParentWorldMatrix = null;
+  protected boolean isWorldDirty = true;
+  
   abstract void draw();
+  
+  // gives back shared resources such as textures
+  void dispose()
+  {
+  }
+  
+  void attachTo(PMatrix3D parentWorldMatrix)
+  {
+    myParentWorldMatrix = parentWorldMatrix;
+    isWorldDirty = true;
+  }
+  
+  void markWorldDirty()
+  {
+    isWorldDirty = true;
+  }
+  
+  void updateWorld()
+  {
+    if (!isWorldDirty)
+      return;
+    if (myParentWorldMatrix != null)
+      myWorldMatrix.set(myParentWorldMatrix);
+    else
+      myWorldMatrix.reset();
+    isWorldDirty = false;
+  }
 }
 
 abstract class ShapeNode extends Node implements Collideable
@@ -8,37 +40,97 @@ abstract class ShapeNode extends Node implements Collideable
   protected PVector myColor;
   PVector myPosition;
   PImage myTexture = null;
+  String myTextureName = null;
+  private PVector myWorldOrigin = new PVector();
   
   ShapeNode(String inputTexture, PVector inputColor)
   {
     if(inputTexture != null)
-      myTexture = loadImage(inputTexture);      
+    {
+      myTextureName = inputTexture;
+      myTexture = textureCache.acquire(inputTexture);
+    }
     myColor = inputColor;
     myPosition = new PVector();
   }  
+  
+  void dispose()
+  {
+    if (myTextureName != null)
+      textureCache.release(myTextureName);
+    myTexture = null;
+    myTextureName = null;
+  }
+
+  // per-frame state that has to stay current even when the shape is drawn
+  // from a RenderList instead of through draw()
+  void update()
+  {
+    updatePosition();
+  }
+  
+  // the tessellated geometry of this shape, or null when it is drawn with
+  // one of Processing's own primitives
+  Mesh mesh(boolean textured)
+  {
+    return null;
+  }
+  
   void draw()
   {
-    myPosition.x = modelX(0,0,0);
-    myPosition.y = modelY(0,0,0);
-    myPosition.z = modelZ(0,0,0);
+    update();
     noStroke();
     if(myColor != null)
       fill(myColor.x, myColor.y, myColor.z);
     else
       noFill();
   }
-   
+  
+  // same result as modelX/Y/Z(0,0,0), without reading back the matrix stack
+  void updatePosition()
+  {
+    updateWorld();
+    viewMatrix.mult(myWorldOrigin, myPosition);
+  }
+  
+  PVector collisionCenter()
+  {
+    updateWorld();
+    return myWorldOrigin;
+  }
+  
+  // uniform scale of the world matrix, for turning local sizes into world sizes
+  float worldScale()
+  {
+    updateWorld();
+    return sqrt(myWorldMatrix.m00 * myWorldMatrix.m00 + myWorldMatrix.m10 * myWorldMatrix.m10 + myWorldMatrix.m20 * myWorldMatrix.m20);
+  }
+  
+  void updateWorld()
+  {
+    if (!isWorldDirty)
+      return;
+    super.updateWorld();
+    myWorldOrigin.x = myWorldMatrix.m03;
+    myWorldOrigin.y = myWorldMatrix.m13;
+    myWorldOrigin.z = myWorldMatrix.m23;
+  }
 }
 
 class CylinderNode extends ShapeNode
 {
   private float myWidth, myHeight;
+  private Mesh myMesh;
   
   CylinderNode(String inputTexture, PVector inputColor, float inputWidth, float inputHeight)
   {
     super(inputTexture, inputColor);
     myWidth = inputWidth;
     myHeight = inputHeight;
+    String key = "cylinder " + myWidth + " " + myHeight;
+    myMesh = cachedMesh(key);
+    if (myMesh == null)
+      myMesh = cacheMesh(key, buildCylinder(myWidth, myHeight));
   }
   
   void draw()
@@ -47,11 +139,26 @@ class CylinderNode extends ShapeNode
     cylinder(myWidth,myHeight);
   }
   
-  void collide()
+  Mesh mesh(boolean textured)
+  {
+    return myMesh;
+  }
+  
+  void collide(Ball ball)
+  {
+  }
+  
+  float collisionRadius()
   {
+    return sqrt(myWidth * myWidth + myHeight * myHeight / 4) * worldScale();
   }
   
   void cylinder(float w, float h)
+  {
+    mesh(true).draw(texturesON ? myTexture : null);
+  }
+  
+  Mesh buildCylinder(float w, float h)
   {
     int sides = 100;
     float angle;
@@ -65,51 +172,31 @@ class CylinderNode extends ShapeNode
       z[i] = cos(angle) * w;
     }
    
-    if(texturesON && (myTexture != null))
+    MeshBuilder builder = new MeshBuilder();
+    
+    //draw the top of the cylinder, the only textured face
+    builder.beginStrip(TRIANGLE_FAN, true);
+    builder.vertex(0,   -h/2,    0,0,0);
+    for(int i=0; i < x.length; i++)
     {
-      beginShape(TRIANGLE_FAN);
-      textureMode(NORMALIZED);
-      texture(myTexture);
-      vertex(0,   -h/2,    0,0,0);
-   
-      for(int i=0; i < x.length; i++)
-      {
-        vertex(x[i], -h/2, z[i],1,1);
-      }
-      endShape();
-    }
-    else{
-    //draw the top of the cylinder
-      beginShape(TRIANGLE_FAN);
-
-      vertex(0,   -h/2,    0);
-      for(int i=0; i < x.length; i++)
-      {
-        vertex(x[i], -h/2, z[i]);
-      }
-      endShape();
+      builder.vertex(x[i], -h/2, z[i],1,1);
     }
    
     //draw the center of the cylinder
-    beginShape(QUAD_STRIP); 
-   
+    builder.beginStrip(QUAD_STRIP, false);
     for(int i=0; i < x.length; i++){
-      vertex(x[i], -h/2, z[i]);
-      vertex(x[i], h/2, z[i]);
+      builder.vertex(x[i], -h/2, z[i]);
+      builder.vertex(x[i], h/2, z[i]);
     }
    
-    endShape();
-   
     //draw the bottom of the cylinder
-    beginShape(TRIANGLE_FAN); 
-   
-    vertex(0,   h/2,    0);
-   
+    builder.beginStrip(TRIANGLE_FAN, false);
+    builder.vertex(0,   h/2,    0);
     for(int i=0; i < x.length; i++){
-      vertex(x[i], h/2, z[i]);
+      builder.vertex(x[i], h/2, z[i]);
     }
    
-    endShape();
+    return builder.build();
   }
 }
 
@@ -129,9 +216,7 @@ class SphereNode extends ShapeNode
   void draw()
   {
     if(isLightSource){
-      myPosition.x = modelX(0,0,0);
-      myPosition.y = modelY(0,0,0);
-      myPosition.z = modelZ(0,0,0);
+      updatePosition();
       noFill();
       if(myColor != null)
         stroke(myColor.x, myColor.y, myColor.z);
@@ -146,8 +231,13 @@ class SphereNode extends ShapeNode
     }
   }  
   
-  void collide()
+  void collide(Ball ball)
+  {
+  }
+  
+  float collisionRadius()
   {
+    return myRadius * worldScale();
   }
 }
 
@@ -169,16 +259,24 @@ class BoxNode extends ShapeNode
     box(myWidth, myHeight, myDepth);
   } 
  
-  void collide()
+  void collide(Ball ball)
   {
   } 
   
+  float collisionRadius()
+  {
+    return sqrt(myWidth * myWidth + myHeight * myHeight + myDepth * myDepth) / 2 * worldScale();
+  }
+  
 }
 
 class PlaneNode extends ShapeNode
 {
   private float myWidth, myLength;
   private PVector myNormal;
+  private PVector myOffset = new PVector();
+  private Mesh myTexturedMesh;
+  private Mesh myPlainMesh;
   
   PlaneNode(String inputTexture,PVector inputColor, float inputWidth, float inputLength)
   {
@@ -186,52 +284,83 @@ class PlaneNode extends ShapeNode
     myWidth = inputWidth/2;
     myLength = inputLength/2;
     myNormal = new PVector();
+    myTexturedMesh = texturedMesh();
+    myPlainMesh = plainMesh();
   }
   
-  void draw()
+  void update()
   {
-    super.draw();
+    super.update();
     myNormal.x = center.x-myPosition.x;
     myNormal.y = center.y-myPosition.y;
     myNormal.z = center.z-myPosition.z;
     myNormal.normalize();
     //print(myNormal);
-    if(texturesON && (myTexture != null))
-    {
-      float widthNum = (float)Math.ceil(myWidth / 200);
-      float lengthNum = (float)Math.ceil(myLength / 200);
+  }
+  
+  void draw()
+  {
+    super.draw();
+    mesh(texturesON && (myTexture != null)).draw(myTexture);
+  }
+  
+  Mesh mesh(boolean textured)
+  {
+    return textured ? myTexturedMesh : myPlainMesh;
+  }
+  
+  Mesh texturedMesh()
+  {
+    String key = "plane textured " + myWidth + " " + myLength;
+    Mesh mesh = cachedMesh(key);
+    if (mesh != null)
+      return mesh;
       
-      float widthFactor = myWidth / widthNum;
-      float lengthFactor = myLength / lengthNum;
-     
-      for (int i = 0;  i < widthNum*2; i++)
+    float widthNum = (float)Math.ceil(myWidth / 200);
+    float lengthNum = (float)Math.ceil(myLength / 200);
+      
+    float widthFactor = myWidth / widthNum;
+    float lengthFactor = myLength / lengthNum;
+    
+    // every tile is its own quad so the texture repeats across the plane;
+    // QUADS lets the whole grid go out in a single shape
+    MeshBuilder builder = new MeshBuilder();
+    builder.beginStrip(QUADS, true);
+    for (int i = 0;  i < widthNum*2; i++)
+    {
+      for (int j = 0;  j < lengthNum*2; j++)
       {
-        for (int j = 0;  j < lengthNum*2; j++)
-        {
-          beginShape(QUAD_STRIP);
-          textureMode(NORMALIZED);
-          texture(myTexture);
-          vertex(myWidth - (i * widthFactor), 0, myLength - (j * lengthFactor),0,1);    
-          vertex(myWidth - ((i + 1) * widthFactor), 0, myLength - (j * lengthFactor),1,0); 
-          vertex(myWidth - (i * widthFactor), 0, myLength - ((j + 1) * lengthFactor),1,1);                    
-          vertex(myWidth - ((i + 1) * widthFactor), 0, myLength - ((j + 1) * lengthFactor),0,0);                    
-          endShape(); 
-        }
-      }       
-    }
-    else
-    {   
-      beginShape(QUAD_STRIP);
-      vertex(myWidth,0,myLength);
-      vertex(-1 * myWidth,0,myLength);
-      vertex(myWidth,0,-1 * myLength);  
-      vertex(-1 * myWidth,0,-1 * myLength);
-      endShape();    
+        builder.vertex(myWidth - (i * widthFactor), 0, myLength - (j * lengthFactor),0,1);    
+        builder.vertex(myWidth - ((i + 1) * widthFactor), 0, myLength - (j * lengthFactor),1,0); 
+        builder.vertex(myWidth - ((i + 1) * widthFactor), 0, myLength - ((j + 1) * lengthFactor),0,0);                    
+        builder.vertex(myWidth - (i * widthFactor), 0, myLength - ((j + 1) * lengthFactor),1,1);                    
+      }
     }
-
+    return cacheMesh(key, builder.build());
   }
   
-  void collide()
+  Mesh plainMesh()
+  {
+    String key = "plane " + myWidth + " " + myLength;
+    Mesh mesh = cachedMesh(key);
+    if (mesh != null)
+      return mesh;
+      
+    MeshBuilder builder = new MeshBuilder();
+    builder.beginStrip(QUAD_STRIP, false);
+    builder.vertex(myWidth,0,myLength);
+    builder.vertex(-1 * myWidth,0,myLength);
+    builder.vertex(myWidth,0,-1 * myLength);  
+    builder.vertex(-1 * myWidth,0,-1 * myLength);
+    return cacheMesh(key, builder.build());
+  }
+  
+  float collisionRadius()
+  {
+    return sqrt(myWidth * myWidth + myLength * myLength) * worldScale();
+  }
+  
+  void collide(Ball ball)
   {
     //print(position);
 //   if (ball.location.x > myPosition.x + myWidth || ball.location.x < myPosition.x - myWidth)
@@ -245,7 +374,7 @@ class PlaneNode extends ShapeNode
 //        ball.speed.y =0;
 //      ball.location.y = myPosition.y - ball.radius;
 //    }
-    float distance =  PVector.dot(ball.vectorFrom(myPosition), myNormal);
+    float distance =  PVector.dot(ball.vectorFrom(myPosition, myOffset), myNormal);
     distance -= ball.radius;
     //println(distance);
     if (distance < 2 && distance > -2) 
@@ -264,6 +393,8 @@ class GroupNode extends Node
 {
   private List<Node> myChildren;
   private List<Transform> myTransforms;
+  private PMatrix3D myLocalMatrix = new PMatrix3D();
+  private boolean isLocalDirty = true;
   
   GroupNode()
   {
@@ -274,19 +405,74 @@ class GroupNode extends Node
   void addChild(Node... children)
   {
     for (Node n: children)
+    {
       myChildren.add(n);
+      n.attachTo(myWorldMatrix);
+    }
+    sceneGraphVersion++;
   }
   
   void addTransform(Transform trans)
   {
     myTransforms.add(trans);
+    isLocalDirty = true;
+    sceneGraphVersion++;
+  }
+  
+  void dispose()
+  {
+    for (int i = 0; i < myChildren.size(); i++)
+      myChildren.get(i).dispose();
+  }
+  
+  List<Node> children()
+  {
+    return myChildren;
+  }
+  
+  // a static group's local matrix never changes once composed
+  boolean isStatic()
+  {
+    for (int i = 0; i < myTransforms.size(); i++)
+      if (!myTransforms.get(i).isStatic())
+        return false;
+    return true;
+  }
+  
+  void updateLocal()
+  {
+    if (!isLocalDirty)
+    {
+      for (int i = 0; i < myTransforms.size(); i++)
+        if (myTransforms.get(i).hasChanged())
+          isLocalDirty = true;
+      if (!isLocalDirty)
+        return;
+    }
+    myLocalMatrix.reset();
+    for (int i = 0; i < myTransforms.size(); i++)
+      myTransforms.get(i).applyTo(myLocalMatrix);
+    isLocalDirty = false;
+    isWorldDirty = true;
+  }
+  
+  void updateWorld()
+  {
+    if (!isWorldDirty)
+      return;
+    super.updateWorld();
+    myWorldMatrix.apply(myLocalMatrix);
+    for (int i = 0; i < myChildren.size(); i++)
+      myChildren.get(i).markWorldDirty();
   }
   
   void draw()
   {
+    updateLocal();
+    updateWorld();
+    
     pushMatrix();
-    for (Transform t: myTransforms)
-      t.applyTransform();
+    applyMatrix(myLocalMatrix);
         
     for (int i = 0; i < myChildren.size(); i++) 
     {
@@ -297,6 +483,3 @@ class GroupNode extends Node
 
   }
 }
- 
-
-
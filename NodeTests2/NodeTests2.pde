@@ -8,6 +8,11 @@
   *
   */
   import processing.opengl.*;
+  import java.nio.*;
+  import java.nio.channels.*;
+  import java.util.concurrent.*;
+  import java.util.concurrent.atomic.*;
+  import controlP5.*;
   final int WIDTH  = 1000;
   final int HEIGHT = 600;
    
@@ -42,11 +47,21 @@
   static final float UPPER_X_BOUND = -300;
   static final float LOWER_Z_BOUND = 500;
   static final float UPPER_Z_BOUND = -500;
+  // the field is turned PI / UNIVERSE_ROTATE_FACTOR about y; HeadlessMatch
+  // works out ball positions with the same turn
+  static final float UNIVERSE_ROTATE_FACTOR = 2;
+
+  final float CROWD_RADIUS = 20;
+  final float CROWD_SPACING = 45;
+  final float CROWD_RISE = 30;
+  final int CROWD_ROWS = 30;
+  final int CROWD_SEATS = 25;
   
   GroupNode universe;
+  RenderList universeRenderList;
   PVector position;
   Ball ball;
-  Spectator firstGuy;
+  List<Ball> balls;
   List<Collideable> collisionList;
   float absorb = .8;
   boolean texturesON = true;
@@ -55,8 +70,8 @@
   float rotx = 98.95987;
   float roty = 0;
   float scaleValue = 1;
-  List<Spectator> homeSpectators;
-  List<Spectator> awaySpectators;
+  // translate/rotate/scale applied around the scene graph each frame
+  PMatrix3D viewMatrix = new PMatrix3D();
   List<Player> players;
   List<List<PVector>> playerCurves;
   PVector center;
@@ -69,6 +84,7 @@
   *  Stuff added in for microphone input.
   */
   Minim minim;
+  ControlP5 controlP5;
   AudioInput blow;
   LowPassFS lowpass;
   public void setupMicVariables(){
@@ -76,96 +92,64 @@
 	blow = minim.getLineIn();
 	lowpass = new LowPassFS(200, blow.sampleRate());
 	blow.addEffect(lowpass);
+	blowDetector = new BlowDetector(blow.sampleRate());
+	blow.addListener(blowDetector);
+	micTrace = new float[blow.bufferSize()];
   }
-  float n = 0;
   float x = 0;
   float lastblowf = 0;
-  
-  public boolean isBlow(){
-     for(float f : blow.mix.toArray()){
-	if(f>0.4){
-		return true;
-	}
-    } 
-    return false;
-  }
+  float[] micTrace;
   /*
   *
   */
   
+  // "--headless" runs the match rules without opening a window, one match
+  // or a parallel batch, see runHeadless(); anything else starts the sketch
+  // as usual
+  static public void main(String args[])
+  {
+    if (Arrays.asList(args).contains("--headless"))
+    {
+      runHeadless(args);
+    }
+    else
+    {
+      PApplet.main(new String[] { "NodeTests2" });
+    }
+  }
+  
   void setup()
   {
     setupMicVariables();
     size(WIDTH, HEIGHT, P3D);
     frameRate(30);
-    scene = new Loading();
     center = new PVector(width/2,height/2,0);
-    collisionList = new ArrayList<Collideable>();
-    homeSpectators = new ArrayList<Spectator>();
-    awaySpectators = new ArrayList<Spectator>();
+    collisionList = Collections.synchronizedList(new ArrayList<Collideable>());
     players = new ArrayList<Player>();
     playerCurves = new ArrayList<List<PVector>>();
 
+    // the goals, lights and field are attached by Loading once they are read
     universe = new GroupNode();
-    universe.addTransform(new PartialRotateTransform(2, 1));
-      
-    GroupNode goalAndLights1 = new GroupNode();
-    goalAndLights1.addTransform(new TranslateTransform(0, -50, -450));
-    goalAndLights1.addChild(read(new XMLElement(this, "goal.xml")));
-    GroupNode light1 = new GroupNode();
-    GroupNode light2 = new GroupNode();
-    goalAndLights1.addChild(light1,light2);
-    light1.addTransform(new TranslateTransform(350, 0, -100));
-    light1.addTransform(new PartialRotateTransform(-4,1));
-    light1.addChild(read(new XMLElement(this, "lightpost.xml")));
-    
-    light2.addTransform(new TranslateTransform(-350, 0, -100));
-    light2.addTransform(new PartialRotateTransform(4,1));
-    light2.addChild(read(new XMLElement(this, "lightpost.xml")));
-    
-  
+    universe.addTransform(new PartialRotateTransform(UNIVERSE_ROTATE_FACTOR, YDIRECTION));
+    universeRenderList = new RenderList(universe);
     
-    GroupNode goalAndLights2 = new GroupNode();
-    goalAndLights2.addTransform(new TranslateTransform(0, -50, 450));
-    goalAndLights2.addTransform(new PartialRotateTransform(1,1)); 
-    goalAndLights2.addChild(read(new XMLElement(this, "goal.xml")));
-    GroupNode light3 = new GroupNode();
-    GroupNode light4 = new GroupNode();
-    goalAndLights2.addChild(light3,light4);
-    light3.addTransform(new TranslateTransform(350, 0, -100));
-    light3.addTransform(new PartialRotateTransform(-4,1));
-    light3.addChild(read(new XMLElement(this, "lightpost.xml")));
     
-    light4.addTransform(new TranslateTransform(-350, 0, -100));
-    light4.addTransform(new PartialRotateTransform(4,1));
-    light4.addChild(read(new XMLElement(this, "lightpost.xml")));
+    PVector speed = new PVector();
+    PVector position = new PVector();
+    dropBall(position, speed);
+    ball = new Ball(speed, BALL_RADIUS, position);
+    balls = new ArrayList<Ball>();
+    balls.add(ball);
   
+    // the stands run along both touchlines, facing the pitch
+    crowd = new Crowd(CROWD_RADIUS);
+    crowd.addStand(HOME_STAND, 0, -350, 0, 1, CROWD_ROWS, CROWD_SEATS, CROWD_SPACING, CROWD_RISE);
+    crowd.addStand(AWAY_STAND, 0, 350, 0, -1, CROWD_ROWS, CROWD_SEATS, CROWD_SPACING, CROWD_RISE);
     
-    
-    universe.addChild(goalAndLights1);
-    universe.addChild(goalAndLights2);
-    universe.addChild(read(new XMLElement(this, "field.xml")));
-    
-    
-    PVector speed = new PVector(0,4,0);
-    PVector position = new PVector (0, -100, 0);
-    ball = new Ball(speed,10, position);
-  
-    homeSpectators.add(new Spectator(new PVector(0, -30, -350)));
-    homeSpectators.add(new Spectator(new PVector(100, -30, -350)));
-    homeSpectators.add(new Spectator(new PVector( -100,-30, -350)));
-    homeSpectators.add(new Spectator(new PVector(200, -30, -350)));
-    homeSpectators.add(new Spectator(new PVector( -200,-30, -350)));
-    
-    awaySpectators.add(new Spectator(new PVector(0, -30, 350), new PVector(0, 0, -1)));
-    awaySpectators.add(new Spectator(new PVector(100, -30, 350), new PVector(0, 0, -1)));
-    awaySpectators.add(new Spectator(new PVector( -100,-30, 350), new PVector(0, 0, -1)));
-    awaySpectators.add(new Spectator(new PVector(200, -30, 350), new PVector(0, 0, -1)));
-    awaySpectators.add(new Spectator(new PVector( -200,-30, 350), new PVector(0, 0, -1)));
-    
-    cheerSound =  minim.loadFile("cheer-03.wav", 512);
-    booSound =  minim.loadFile("boo.wav", 512);    
-    windSound =  minim.loadFile("wind.wav", 512);
+    scene = new Loading();
+
+    controlP5 = new ControlP5(this);
+    profiler.attach(controlP5, 10, 10, 480, 160);
 
 
    
@@ -173,15 +157,30 @@
   
   void draw()
   {
-    if(isBlow()){
-       spectatorShiver(awaySpectators);
-       spectatorShiver(homeSpectators);
-       ball.speed.y -= 3;
-       System.out.println("blow detected"); 
-       windSound.play(0);
+    if(!scene.isLoaded())
+    {
+      scene = scene.update();
+      return;
+    }
+    if(matchInput.isFastForwarding())
+    {
+      // run the replay on with nothing drawn but how far it has got
+      simulation.skip(REPLAY_FAST_FORWARD_STEPS);
+      scheduler.advanceTo(simulation.millis());
+      background(0xFF000000);
+      noStroke();
+      fill(80);
+      rect(width/4, height/2 - 5, width/2, 10);
+      fill(255, 200, 0);
+      rect(width/4, height/2 - 5, width/2 * matchInput.replayProgress(), 10);
+      return;
     }
+    profiler.frameStart();
+    if(blowDetector.takeBlow())
+      matchInput.post(EVENT_BLOW);
     //background(0xFFFFFFFF);
-    for(float f : blow.mix.toArray()){
+    profiler.begin(PROFILE_MIC);
+    for(float f : blow.mix.copyInto(micTrace)){
       f*=200;
       stroke(255,0,0);
       line(x-1,lastblowf,0,x,f,0);
@@ -190,29 +189,32 @@
       if(x>width){
         x=0;
       }
-      if(f>50){
-        System.out.println(f);
-        n++;
-      }
     }
     
+    profiler.end(PROFILE_MIC);
     //camera(400, -400, 400, 0, 0, 0, 0, 1, 0);
     background(40, 180, 250);
     
     lights();
     pushMatrix();
-    translate(width/2, height/2, 0);
+    viewMatrix.reset();
+    viewMatrix.translate(width/2, height/2, 0);
 
-    rotateX(rotx);
-    rotateY(roty);
-    scale(scaleValue);
+    viewMatrix.rotateX(rotx);
+    viewMatrix.rotateY(roty);
+    viewMatrix.scale(scaleValue);
+    applyMatrix(viewMatrix);
     
 
     //background(0xFFFFFFFF);
     if(skyBoxON)
       scene = scene.update();
       
-    universe.draw();
+    simulation.advance();
+    scheduler.advanceTo(simulation.millis());
+    profiler.begin(PROFILE_UNIVERSE);
+    universeRenderList.draw();
+    profiler.end(PROFILE_UNIVERSE);
     //scene = scene.update();
     //scene = scene.update();
     
@@ -222,49 +224,36 @@
   //    c.collide();
     
     
-    boundBall();
-    checkGoal();
-    
+    profiler.begin(PROFILE_CROWD);
     if(drawMode)
     {
       //stroke(0);
-      if (playerCurves.size() != 0)
-      {
-        for (int i = 0; i < playerCurves.get(playerCurves.size() - 1).size(); i++)
-        {
-          if(true)
-          {
-            PVector p = playerCurves.get(playerCurves.size() - 1).get(i);
-            pushMatrix();
-              translate(p.x, 0, p.y);
-              noFill();
-              stroke(255, 255, 255);
-              sphere(5);
-            popMatrix();
-          }
-        }
-      }
+      noFill();
+      stroke(255, 255, 255);
+      curveBuilder.draw();
     
       
     }
     else
     {
-
-      for (Spectator s : homeSpectators)
-        s.display();
-        
-      for (Spectator s : awaySpectators)
-        s.display();
-        
+      crowd.draw();
     }
+    profiler.end(PROFILE_CROWD);
     
+    profiler.begin(PROFILE_PLAYERS);
     for (Player p : players)
-    {
       p.display();
-      p.collide();
-    }
+    profiler.end(PROFILE_PLAYERS);
     
     popMatrix();
+    allocationMeter.frame();
+    profiler.frameEnd();
+
+    // P3D leaves drawing controlP5 to the sketch
+    hint(DISABLE_DEPTH_TEST);
+    noLights();
+    controlP5.draw();
+    hint(ENABLE_DEPTH_TEST);
     
   }
   
@@ -273,32 +262,108 @@
   
 interface Scene {
   Scene update();
+  boolean isLoaded();
 }
  
 class Loading implements Scene {
-  private boolean loading;
+  private AssetLoader loader;
+  private Future<GroupNode> goalAndLights1;
+  private Future<GroupNode> goalAndLights2;
+  private Future<GroupNode> field;
+  private Future<SkyBox> skyBox;
+  private Future<AudioPlayer> cheer;
+  private Future<AudioPlayer> boo;
+  private Future<AudioPlayer> wind;
    
   Loading() {
-    loading = true;
-    new Thread() {
-      public synchronized void run() {      
-        nightSkyBox = new SkyBox("frontdark.jpg",
-                                 "rightdark.jpg",
-                                 "backdark.jpg",
-                                 "leftdark.jpg",
-                                 "topdark.jpg",
-                                 "botdark.jpg");
-        loading = false;
+    loader = new AssetLoader();
+    goalAndLights1 = loader.submit(new Callable<GroupNode>() {
+      public GroupNode call() {
+        return createGoalAndLights(-450, false);
+      }
+    });
+    goalAndLights2 = loader.submit(new Callable<GroupNode>() {
+      public GroupNode call() {
+        return createGoalAndLights(450, true);
+      }
+    });
+    field = loader.submit(new Callable<GroupNode>() {
+      public GroupNode call() {
+        return loadScene("field.xml");
+      }
+    });
+    skyBox = loader.submit(new Callable<SkyBox>() {
+      public SkyBox call() {
+        return new SkyBox("frontdark.jpg",
+                          "rightdark.jpg",
+                          "backdark.jpg",
+                          "leftdark.jpg",
+                          "topdark.jpg",
+                          "botdark.jpg");
+      }
+    });
+    cheer = loadSound("cheer-03.wav");
+    boo = loadSound("boo.wav");
+    wind = loadSound("wind.wav");
+  }
+  
+  private Future<AudioPlayer> loadSound(final String file) {
+    return loader.submit(new Callable<AudioPlayer>() {
+      public AudioPlayer call() {
+        return minim.loadFile(file, 512);
       }
-    }.start();
+    });
   }
+  
+  boolean isLoaded() {
+    return false;
+  }
+  
   Scene update() {
     background(0xFF000000);
-    if(loading) return this;
+    if(!loader.isDone()) {
+      noStroke();
+      fill(80);
+      rect(width/4, height/2 - 5, width/2, 10);
+      fill(255);
+      rect(width/4, height/2 - 5, width/2 * loader.progress(), 10);
+      return this;
+    }
+    
+    // hand everything over on the animation thread
+    universe.addChild(loader.result(goalAndLights1));
+    universe.addChild(loader.result(goalAndLights2));
+    universe.addChild(loader.result(field));
+    nightSkyBox = loader.result(skyBox);
+    cheerSound = loader.result(cheer);
+    booSound = loader.result(boo);
+    windSound = loader.result(wind);
+    loader.shutdown();
+    println(textureCache.report());
     return new MainScene();
   }
 }
 
+  GroupNode createGoalAndLights(float z, boolean facingAway)
+  {
+    GroupNode goalAndLights = new GroupNode();
+    goalAndLights.addTransform(new TranslateTransform(0, -50, z));
+    if (facingAway)
+      goalAndLights.addTransform(new PartialRotateTransform(1,1)); 
+    goalAndLights.addChild(loadScene("goal.xml"));
+    GroupNode light1 = new GroupNode();
+    GroupNode light2 = new GroupNode();
+    goalAndLights.addChild(light1,light2);
+    light1.addTransform(new TranslateTransform(350, 0, -100));
+    light1.addTransform(new PartialRotateTransform(-4,1));
+    light1.addChild(loadScene("lightpost.xml"));
+    
+    light2.addTransform(new TranslateTransform(-350, 0, -100));
+    light2.addTransform(new PartialRotateTransform(4,1));
+    light2.addChild(loadScene("lightpost.xml"));
+    return goalAndLights;
+  }
+
   GroupNode read (XMLElement root)
   {
     if (root.getString("file") != null)
@@ -534,47 +599,25 @@ class Loading implements Scene {
     {
         skyBoxON = !skyBoxON;
     }
-     if (key =='c')
-     {
-       spectatorCheer(awaySpectators);
-     }
-     if (key =='g')
-     {
-       spectatorGroan(homeSpectators);
-     }
-     
-     if (key == 'x')
-       spectatorShiver(homeSpectators);
+     if (key =='c' || key == 'g' || key == 'x')
+       matchInput.post(EVENT_CROWD, key);
      if (key == 'f')
        ball.isWireFrame = !ball.isWireFrame;
      if (key == 'n')
      {
        if(drawMode)
-       {
-         Timer t = new Timer();
-         TimerTask task = new TimerTask()
-         {
-           public void run()
-           {
-             if( (scaleValue > .5 || rotx < 100) && transitionMode )
-             {
-               if(scaleValue > .5)
-                 scaleValue -= .00125;
-               if(rotx < 100)
-                 rotx += .0025;
-             }
-             else
-             {
-                transitionMode = false;
-             } 
-             drawMode = false;
-           }                 
-         };
-    
-         t.scheduleAtFixedRate(task, 0, 5);
-         universe.addChild(ball);
-       }
+         matchInput.post(EVENT_KICK_OFF);
+     }
+     if (key == 'o')
+       matchInput.toggleRecording();
+     if (key == 'l')
+     {
+       File recording = lastRecording();
+       if (recording != null)
+         matchInput.replay(recording);
      }
+     if (key == 'j')
+       matchInput.isFastForward = !matchInput.isFastForward;
         
     if (key == ' '){
       if(isRunning)
@@ -584,23 +627,24 @@ class Loading implements Scene {
       }
       else
       {
+        simulation.resume();
         loop();
         isRunning = true;
       }
     }
-    if (key == 'a')
-      ball.speed.z -= .8;
-     if (key == 'd')
-      ball.speed.z += .8;
-     if (key == 'w')
-      ball.speed.x += .8;
-     if (key == 's')
-      ball.speed.x -= .8;
+    if (key == 'a' || key == 'd' || key == 'w' || key == 's')
+      matchInput.post(EVENT_NUDGE, key);
+     if (key == 'm')
+       allocationMeter.isReporting = !allocationMeter.isReporting;
+     if (key == 'h')
+       profiler.toggleOverlay();
+     if (key == 'e')
+       saveProfile();
      if (key == 'p')
        //playSound("cheer-03.wav");
      if (key == 'r')
      {
-       resetBall();
+       matchInput.post(EVENT_RESET_BALL);
      }
 
     if (key == CODED)
@@ -626,15 +670,14 @@ class Loading implements Scene {
         //playerCurves.get(playerCurves.size() - 1).clear();
       //curvePoints.add(new PVector(mouseX, mouseY));
       isAnimating = false;
-      playerCurves.add(new ArrayList<PVector>());
-      playerCurves.get(playerCurves.size() - 1).add(new PVector(mouseX - (WIDTH/2), mouseY - (HEIGHT/2)));
+      curveBuilder.begin(mouseX - (WIDTH/2), mouseY - (HEIGHT/2));
     }
   }
 
 void mouseDragged ()
 {
   if(drawMode)
-    playerCurves.get(playerCurves.size() - 1).add(new PVector(mouseX - (WIDTH/2), mouseY - (HEIGHT/2)));
+    curveBuilder.add(mouseX - (WIDTH/2), mouseY - (HEIGHT/2));
   else
   {
     float rate = 0.01;
@@ -647,29 +690,86 @@ void mouseReleased ()
 {
   if(drawMode)
   {
-    playerCurves.get(playerCurves.size() - 1).add(new PVector(mouseX - (WIDTH/2), mouseY - (HEIGHT/2)));
+    List<PVector> curve = curveBuilder.finish(mouseX - (WIDTH/2), mouseY - (HEIGHT/2));
     isAnimating = true;
     t = 0;
-    for(int i = 0; i < playerCurves.get(playerCurves.size() - 1).size(); i++)
+    
+    // a player needs four points to have any spline to run along
+    if(curveBuilder.rawCount() >= 10 && curve.size() >= 4)
     {
-      PVector p = playerCurves.get(playerCurves.size() - 1).get(i);
-      //println(p);
+      matchInput.postPlayer(curve);
+      File saved = saveDrawnCurve(curve);
+      if (saved != null)
+        println("Saved curve as " + saved.getName());
     }
-    
-    if(playerCurves.get(playerCurves.size() - 1).size() < 10)
-      playerCurves.remove(playerCurves.size() - 1);
-    else
-      players.add(new Player(playerCurves.get(playerCurves.size() - 1))); 
   }  
 }
 
   
+// Saves the frame times kept by the profiler as data/profile<n>.csv.
+void saveProfile()
+{
+  File f;
+  int n = 1;
+  do
+  {
+    f = new File(dataPath("profile" + n + ".csv"));
+    n++;
+  }
+  while (f.exists());
+  try
+  {
+    f.getParentFile().mkdirs();
+    profiler.saveCSV(f);
+    profiler.report();
+    println("Saved " + f.getName());
+  }
+  catch (IOException e)
+  {
+    println("Could not save " + f + ": " + e.getMessage());
+  }
+}
+
+// Ends the planning: the ball comes into play from this step and the camera
+// swings round to the match.
+void kickOff()
+{
+  if (!drawMode)
+    return;
+  drawMode = false;
+  ScheduledTask task = new ScheduledTask()
+  {
+    public void run()
+    {
+      if( (scaleValue > .5 || rotx < 100) && transitionMode )
+      {
+        if(scaleValue > .5)
+          scaleValue -= .00125;
+        if(rotx < 100)
+          rotx += .0025;
+      }
+      else
+      {
+         transitionMode = false;
+         cancel();
+      } 
+    }                 
+  };
+
+  scheduler.scheduleAtFixedRate(task, 0, 5);
+  universe.addChild(ball);
+}
+  
 void stop()
 {
+  matchInput.close();
   blow.close();
-  booSound.close();
-  cheerSound.close();
-  windSound.close();
+  if(scene.isLoaded())
+  {
+    booSound.close();
+    cheerSound.close();
+    windSound.close();
+  }
   minim.stop();
   super.stop();
 }
@@ -0,0 +1,123 @@
+// Samples per curve segment when measuring a path, and the spacing of the
+// table it is resampled into.
+static final int PATH_SAMPLES = 16;
+static final float PATH_SPACING = 2;
+
+// One path per curve. Paths are immutable, so whoever builds them can hand
+// the same ones to many headless matches; nothing else holds on to them.
+static PlayerPath[] playerPaths(List<List<PVector>> curves)
+{
+  PlayerPath[] paths = new PlayerPath[curves.size()];
+  for (int i = 0; i < paths.length; i++)
+    paths[i] = new PlayerPath(curves.get(i));
+  return paths;
+}
+
+// The Catmull-Rom spline a player runs along, from the curve's second point
+// to its last but one (the stretch curvePoint() covers), resampled at equal
+// arc-length steps. Looking up a position is an index and one lerp, and a
+// player moving a fixed distance per step moves at a constant speed however
+// unevenly the curve was drawn. Curve points are (x, y) on the field, which
+// the players use as (x, z).
+static class PlayerPath
+{
+  // x, z per sample, PATH_SPACING apart along the spline
+  private float[] myPoints;
+  private float myLength;
+
+  PlayerPath(List<PVector> curve)
+  {
+    int n = curve.size();
+    float[] xs = new float[n], ys = new float[n];
+    for (int i = 0; i < n; i++)
+    {
+      xs[i] = curve.get(i).x;
+      ys[i] = curve.get(i).y;
+    }
+
+    // dense samples along the spline with their running length
+    int segments = max(1, n - 3);
+    float[] dense = new float[(segments * PATH_SAMPLES + 1) * 2];
+    float[] lengths = new float[segments * PATH_SAMPLES + 1];
+    int count = 0;
+    for (int s = 0; s < segments; s++)
+    {
+      for (int k = (s == 0 ? 0 : 1); k <= PATH_SAMPLES; k++)
+      {
+        float t = k / (float) PATH_SAMPLES;
+        float x, y;
+        if (n >= 4)
+        {
+          x = catmullRom(xs[s], xs[s + 1], xs[s + 2], xs[s + 3], t);
+          y = catmullRom(ys[s], ys[s + 1], ys[s + 2], ys[s + 3], t);
+        }
+        else
+        {
+          // too short for a spline, so run straight from first to last
+          x = lerp(xs[0], xs[n - 1], t);
+          y = lerp(ys[0], ys[n - 1], t);
+        }
+        dense[count * 2] = x;
+        dense[count * 2 + 1] = y;
+        if (count > 0)
+          lengths[count] = lengths[count - 1] + dist(dense[count * 2 - 2], dense[count * 2 - 1], x, y);
+        count++;
+      }
+    }
+    myLength = lengths[count - 1];
+
+    // walk the dense samples once, dropping a point every PATH_SPACING and
+    // one more at the very end
+    int samples = ceil(myLength / PATH_SPACING) + 1;
+    myPoints = new float[samples * 2];
+    int j = 0;
+    for (int i = 0; i < samples; i++)
+    {
+      float s = min(i * PATH_SPACING, myLength);
+      while (j < count - 2 && lengths[j + 1] < s)
+        j++;
+      float span = lengths[j + 1] - lengths[j];
+      float f = span > 0 ? (s - lengths[j]) / span : 0;
+      myPoints[i * 2] = lerp(dense[j * 2], dense[j * 2 + 2], f);
+      myPoints[i * 2 + 1] = lerp(dense[j * 2 + 1], dense[j * 2 + 3], f);
+    }
+  }
+
+  float length()
+  {
+    return myLength;
+  }
+
+  // Players run to the end and back. Travel is the total distance covered,
+  // kept within one round trip.
+  float wrap(float travel)
+  {
+    float trip = 2 * myLength;
+    if (trip <= 0)
+      return 0;
+    travel %= trip;
+    return travel < 0 ? travel + trip : travel;
+  }
+
+  // sets out.x and out.z to where travel puts a player; out.y is left alone
+  void locate(float travel, PVector out)
+  {
+    float s = wrap(travel);
+    if (s > myLength)
+      s = 2 * myLength - s;
+    int last = myPoints.length / 2 - 1;
+    int i = min((int) (s / PATH_SPACING), last);
+    int next = min(i + 1, last);
+    // every gap is PATH_SPACING long except the last, which is what is left
+    float gap = min(PATH_SPACING, myLength - i * PATH_SPACING);
+    float f = next > i && gap > 0 ? min((s - i * PATH_SPACING) / gap, 1) : 0;
+    out.x = lerp(myPoints[i * 2], myPoints[next * 2], f);
+    out.z = lerp(myPoints[i * 2 + 1], myPoints[next * 2 + 1], f);
+  }
+
+  // memory held by the table
+  int bytes()
+  {
+    return myPoints.length * 4;
+  }
+}
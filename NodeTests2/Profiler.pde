@@ -0,0 +1,221 @@
+// Where the time in draw() goes. Each phase of a frame is timed with
+// begin() and end() around it; several spans of one phase in a frame add up,
+// as the simulation steps do. Whatever draw() spends outside the phases
+// counts as "other". The last PROFILE_HISTORY frames are kept in ring
+// buffers. 'h' shows them as a stacked chart over the scene and 'e' saves
+// them as CSV and prints the percentiles. The times are spent on the
+// animation thread, so drawing that the graphics card finishes later is not
+// counted.
+static final int PROFILE_MIC        = 0;
+static final int PROFILE_SKYBOX     = 1;
+static final int PROFILE_PHYSICS    = 2;
+static final int PROFILE_COLLISIONS = 3;
+static final int PROFILE_UNIVERSE   = 4;
+static final int PROFILE_PLAYERS    = 5;
+static final int PROFILE_CROWD      = 6;
+static final int PROFILE_OTHER      = 7;
+// the whole of draw()
+static final int PROFILE_TOTAL      = 8;
+
+static final String[] PROFILE_NAMES = {
+  "mic", "skybox", "physics", "collisions", "universe", "players", "crowd", "other", "total"
+};
+static final int[] PROFILE_COLORS = {
+  0xFFE04040, 0xFF4080E0, 0xFF40C040, 0xFFE0A020, 0xFF8040C0, 0xFFE0E0E0, 0xFF40C0C0, 0xFF808080
+};
+
+static final int PROFILE_HISTORY = 240;
+
+FrameProfiler profiler = new FrameProfiler(1000 / 30.0);
+
+class FrameProfiler
+{
+  private long[] myStarted = new long[PROFILE_TOTAL];
+  private long[] mySpent = new long[PROFILE_TOTAL];
+  private long myFrameStarted = -1;
+  // milliseconds per phase and frame, oldest at myNext once full
+  private float[][] myHistory = new float[PROFILE_TOTAL + 1][PROFILE_HISTORY];
+  private int myNext = 0;
+  private int myFrames = 0;
+  private float[] myOrdered = new float[PROFILE_HISTORY];
+  private float[] mySorted = new float[PROFILE_HISTORY];
+  private float myBudget;
+  private Chart myChart;
+
+  // budget is the milliseconds a frame has, drawn as a line on the chart
+  FrameProfiler(float budget)
+  {
+    myBudget = budget;
+  }
+
+  void frameStart()
+  {
+    // drop anything timed outside a frame, such as a fast-forward
+    for (int i = 0; i < PROFILE_TOTAL; i++)
+      mySpent[i] = 0;
+    myFrameStarted = System.nanoTime();
+  }
+
+  void begin(int phase)
+  {
+    myStarted[phase] = System.nanoTime();
+  }
+
+  void end(int phase)
+  {
+    mySpent[phase] += System.nanoTime() - myStarted[phase];
+  }
+
+  void frameEnd()
+  {
+    if (myFrameStarted < 0)
+      return;
+    long total = System.nanoTime() - myFrameStarted;
+    long other = total;
+    for (int i = 0; i < PROFILE_OTHER; i++)
+    {
+      myHistory[i][myNext] = (float) (mySpent[i] / 1e6);
+      other -= mySpent[i];
+    }
+    myHistory[PROFILE_OTHER][myNext] = (float) (Math.max(other, 0) / 1e6);
+    myHistory[PROFILE_TOTAL][myNext] = (float) (total / 1e6);
+    myNext = (myNext + 1) % PROFILE_HISTORY;
+    if (myFrames < PROFILE_HISTORY)
+      myFrames++;
+    myFrameStarted = -1;
+
+    if (myChart != null && myChart.isVisible())
+      updateChart();
+  }
+
+  int frames()
+  {
+    return myFrames;
+  }
+
+  // the given percentile (0 to 100) of a phase's milliseconds over the
+  // frames kept
+  float percentile(int phase, float p)
+  {
+    if (myFrames == 0)
+      return 0;
+    ordered(phase, mySorted);
+    Arrays.sort(mySorted, 0, myFrames);
+    return mySorted[round(p / 100 * (myFrames - 1))];
+  }
+
+  void report()
+  {
+    println("frame time over " + myFrames + " frames, ms   p50   p95   p99");
+    for (int i = 0; i <= PROFILE_TOTAL; i++)
+      println("  " + PROFILE_NAMES[i] + ": " + nf(percentile(i, 50), 1, 2) + "  "
+              + nf(percentile(i, 95), 1, 2) + "  " + nf(percentile(i, 99), 1, 2));
+  }
+
+  // one row per frame kept, oldest first, milliseconds per phase
+  void saveCSV(File f) throws IOException
+  {
+    PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+    try
+    {
+      out.print("frame");
+      for (int i = 0; i <= PROFILE_TOTAL; i++)
+        out.print("," + PROFILE_NAMES[i]);
+      out.println();
+      int first = myNext - myFrames;
+      for (int k = 0; k < myFrames; k++)
+      {
+        int index = (first + k + PROFILE_HISTORY) % PROFILE_HISTORY;
+        out.print(k);
+        for (int i = 0; i <= PROFILE_TOTAL; i++)
+          out.print("," + myHistory[i][index]);
+        out.println();
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  // Adds the overlay chart to cp5, hidden: one data set per phase, drawn
+  // stacked so each bar is a whole frame.
+  void attach(ControlP5 cp5, int x, int y, int w, int h)
+  {
+    myChart = cp5.addChart("frame time", x, y, w, h);
+    for (int i = 1; i < PROFILE_TOTAL; i++)
+      myChart.addDataSet();
+    for (int i = 0; i < PROFILE_TOTAL; i++)
+      myChart.getDataSet(i).setColor(PROFILE_COLORS[i]);
+    myChart.setColorBackground(0x80000000);
+    myChart.setView(new StackedChartView());
+    myChart.hide();
+  }
+
+  void toggleOverlay()
+  {
+    if (myChart == null)
+      return;
+    if (myChart.isVisible())
+      myChart.hide();
+    else
+      myChart.show();
+  }
+
+  private void updateChart()
+  {
+    for (int i = 0; i < PROFILE_TOTAL; i++)
+    {
+      ordered(i, myOrdered);
+      myChart.updateData(i, myOrdered);
+    }
+  }
+
+  // the history of a phase, oldest first, zeros before the first frame
+  private void ordered(int phase, float[] out)
+  {
+    int first = myNext - myFrames;
+    for (int k = 0; k < PROFILE_HISTORY; k++)
+      out[k] = k < myFrames ? myHistory[phase][(first + k + PROFILE_HISTORY) % PROFILE_HISTORY] : 0;
+  }
+
+  // a bar per frame with the phases stacked up from the bottom, and a line
+  // at the frame budget, which sits halfway up
+  private class StackedChartView implements ControllerView<Chart>
+  {
+    public void display(PApplet p, Chart chart)
+    {
+      float w = chart.getWidth(), h = chart.getHeight();
+      float scale = h / (2 * myBudget);
+      float bar = w / PROFILE_HISTORY;
+      p.pushStyle();
+      p.noStroke();
+      p.fill(chart.getColor().getBackground());
+      p.rect(0, 0, w, h);
+
+      // the chart only has data once it has been updated while showing
+      int frames = Math.min(myFrames, chart.getDataSet(0).size());
+      p.beginShape(QUADS);
+      for (int i = 0; i < frames; i++)
+      {
+        float y = h;
+        for (int n = 0; n < chart.size(); n++)
+        {
+          ChartDataSet set = chart.getDataSet(n);
+          float top = Math.max(y - set.get(i).getValue() * scale, 0);
+          p.fill(set.getColor().getForeground());
+          p.vertex(i * bar, y);
+          p.vertex((i + 1) * bar, y);
+          p.vertex((i + 1) * bar, top);
+          p.vertex(i * bar, top);
+          y = top;
+        }
+      }
+      p.endShape();
+
+      p.stroke(255);
+      p.line(0, h / 2, w, h / 2);
+      p.popStyle();
+    }
+  }
+}
@@ -0,0 +1,273 @@
+// Bumped whenever a GroupNode gains a child or transform, so compiled
+// render lists know to rebuild themselves.
+int sceneGraphVersion = 0;
+
+static final int PRIMITIVE_MESH   = 0;
+static final int PRIMITIVE_BOX    = 1;
+static final int PRIMITIVE_SPHERE = 2;
+
+// A scene graph flattened into parallel arrays. Shapes under static groups
+// are baked into root space once: meshes get their vertices transformed,
+// boxes and spheres keep a world matrix. Entries are sorted by texture and
+// then primitive so drawing is one pass with as few texture switches as
+// possible. Groups with animated transforms and non-shape nodes (the ball)
+// are still drawn through the graph.
+class RenderList
+{
+  private GroupNode myRoot;
+  private int myVersion = -1;
+
+  private int myCount;
+  private int[] myPrimitives;
+  private int[] myTextureIds;
+  private PImage[] myTextures;
+  private Mesh[] myTexturedMeshes;
+  private Mesh[] myPlainMeshes;
+  private float[] myMatrices;   // 16 per entry, row major
+  private float[] myColors;     // 3 per entry
+  private boolean[] hasColor;
+  private float[] mySizes;      // 3 per entry: box w/h/d or sphere radius
+  private ShapeNode[] myShapes;
+
+  private int myLightCount;
+  private float[] myLightMatrices;
+  private float[] myLightColors;
+  private boolean[] hasLightColor;
+  private float[] myLightRadii;
+  private SphereNode[] myLights;
+
+  private List<Node> myDynamicNodes = new ArrayList<Node>();
+  private List<PMatrix3D> myDynamicParents = new ArrayList<PMatrix3D>();
+
+  RenderList(GroupNode root)
+  {
+    myRoot = root;
+  }
+
+  int size()
+  {
+    return myCount;
+  }
+
+  void compile()
+  {
+    myVersion = sceneGraphVersion;
+    myDynamicNodes.clear();
+    myDynamicParents.clear();
+
+    List<ShapeNode> shapes = new ArrayList<ShapeNode>();
+    List<SphereNode> lights = new ArrayList<SphereNode>();
+    if (myRoot.isStatic())
+      collect(myRoot, shapes, lights);
+    else
+    {
+      myDynamicNodes.add(myRoot);
+      myDynamicParents.add(null);
+    }
+
+    final Map<PImage, Integer> textureIds = new IdentityHashMap<PImage, Integer>();
+    for (ShapeNode shape : shapes)
+      if (shape.myTexture != null && !textureIds.containsKey(shape.myTexture))
+        textureIds.put(shape.myTexture, textureIds.size());
+
+    Collections.sort(shapes, new Comparator<ShapeNode>()
+    {
+      public int compare(ShapeNode a, ShapeNode b)
+      {
+        int ta = a.myTexture == null ? -1 : textureIds.get(a.myTexture);
+        int tb = b.myTexture == null ? -1 : textureIds.get(b.myTexture);
+        if (ta != tb)
+          return ta < tb ? -1 : 1;
+        return primitiveOf(a) - primitiveOf(b);
+      }
+    });
+
+    myCount = shapes.size();
+    myPrimitives = new int[myCount];
+    myTextureIds = new int[myCount];
+    myTextures = new PImage[textureIds.size()];
+    myTexturedMeshes = new Mesh[myCount];
+    myPlainMeshes = new Mesh[myCount];
+    myMatrices = new float[myCount * 16];
+    myColors = new float[myCount * 3];
+    hasColor = new boolean[myCount];
+    mySizes = new float[myCount * 3];
+    myShapes = new ShapeNode[myCount];
+
+    for (int i = 0; i < myCount; i++)
+    {
+      ShapeNode shape = shapes.get(i);
+      myShapes[i] = shape;
+      myPrimitives[i] = primitiveOf(shape);
+      myTextureIds[i] = -1;
+      if (shape.myTexture != null)
+      {
+        myTextureIds[i] = textureIds.get(shape.myTexture);
+        myTextures[myTextureIds[i]] = shape.myTexture;
+      }
+      if (shape.myColor != null)
+      {
+        hasColor[i] = true;
+        myColors[i * 3]     = shape.myColor.x;
+        myColors[i * 3 + 1] = shape.myColor.y;
+        myColors[i * 3 + 2] = shape.myColor.z;
+      }
+      copyMatrix(shape.myWorldMatrix, myMatrices, i * 16);
+
+      if (myPrimitives[i] == PRIMITIVE_MESH)
+      {
+        myTexturedMeshes[i] = shape.mesh(true).transformed(shape.myWorldMatrix);
+        myPlainMeshes[i] = shape.mesh(false).transformed(shape.myWorldMatrix);
+      }
+      else if (myPrimitives[i] == PRIMITIVE_BOX)
+      {
+        BoxNode box = (BoxNode) shape;
+        mySizes[i * 3]     = box.myWidth;
+        mySizes[i * 3 + 1] = box.myHeight;
+        mySizes[i * 3 + 2] = box.myDepth;
+      }
+      else
+      {
+        mySizes[i * 3] = ((SphereNode) shape).myRadius;
+      }
+    }
+
+    myLightCount = lights.size();
+    myLightMatrices = new float[myLightCount * 16];
+    myLightColors = new float[myLightCount * 3];
+    hasLightColor = new boolean[myLightCount];
+    myLightRadii = new float[myLightCount];
+    myLights = new SphereNode[myLightCount];
+    for (int i = 0; i < myLightCount; i++)
+    {
+      SphereNode light = lights.get(i);
+      myLights[i] = light;
+      copyMatrix(light.myWorldMatrix, myLightMatrices, i * 16);
+      myLightRadii[i] = light.myRadius;
+      if (light.myColor != null)
+      {
+        hasLightColor[i] = true;
+        myLightColors[i * 3]     = light.myColor.x;
+        myLightColors[i * 3 + 1] = light.myColor.y;
+        myLightColors[i * 3 + 2] = light.myColor.z;
+      }
+    }
+  }
+
+  private void collect(GroupNode group, List<ShapeNode> shapes, List<SphereNode> lights)
+  {
+    group.updateLocal();
+    group.updateWorld();
+    for (Node child : group.children())
+    {
+      if (child instanceof GroupNode && ((GroupNode) child).isStatic())
+        collect((GroupNode) child, shapes, lights);
+      else if (child instanceof SphereNode && ((SphereNode) child).isLightSource)
+      {
+        child.updateWorld();
+        lights.add((SphereNode) child);
+      }
+      else if (child instanceof ShapeNode && primitiveOf((ShapeNode) child) >= 0)
+      {
+        child.updateWorld();
+        shapes.add((ShapeNode) child);
+      }
+      else
+      {
+        myDynamicNodes.add(child);
+        myDynamicParents.add(group.myWorldMatrix);
+      }
+    }
+  }
+
+  private int primitiveOf(ShapeNode shape)
+  {
+    if (shape instanceof BoxNode)
+      return PRIMITIVE_BOX;
+    if (shape instanceof SphereNode)
+      return PRIMITIVE_SPHERE;
+    if (shape.mesh(false) != null)
+      return PRIMITIVE_MESH;
+    return -1;
+  }
+
+  private void copyMatrix(PMatrix3D m, float[] target, int offset)
+  {
+    target[offset]      = m.m00; target[offset + 1]  = m.m01; target[offset + 2]  = m.m02; target[offset + 3]  = m.m03;
+    target[offset + 4]  = m.m10; target[offset + 5]  = m.m11; target[offset + 6]  = m.m12; target[offset + 7]  = m.m13;
+    target[offset + 8]  = m.m20; target[offset + 9]  = m.m21; target[offset + 10] = m.m22; target[offset + 11] = m.m23;
+    target[offset + 12] = m.m30; target[offset + 13] = m.m31; target[offset + 14] = m.m32; target[offset + 15] = m.m33;
+  }
+
+  private void applyMatrixAt(float[] m, int o)
+  {
+    applyMatrix(m[o],      m[o + 1],  m[o + 2],  m[o + 3],
+                m[o + 4],  m[o + 5],  m[o + 6],  m[o + 7],
+                m[o + 8],  m[o + 9],  m[o + 10], m[o + 11],
+                m[o + 12], m[o + 13], m[o + 14], m[o + 15]);
+  }
+
+  void draw()
+  {
+    if (myVersion != sceneGraphVersion)
+      compile();
+
+    // lights go first so every static shape is lit by all of them
+    for (int i = 0; i < myLightCount; i++)
+    {
+      myLights[i].updatePosition();
+      pushMatrix();
+      applyMatrixAt(myLightMatrices, i * 16);
+      noFill();
+      if (hasLightColor[i])
+        stroke(myLightColors[i * 3], myLightColors[i * 3 + 1], myLightColors[i * 3 + 2]);
+      else
+        noStroke();
+      sphere(myLightRadii[i]);
+      pointLight(100,100,100,0,0,0);
+      popMatrix();
+    }
+
+    noStroke();
+    for (int i = 0; i < myCount; i++)
+    {
+      myShapes[i].update();
+      if (hasColor[i])
+        fill(myColors[i * 3], myColors[i * 3 + 1], myColors[i * 3 + 2]);
+      else
+        noFill();
+
+      switch (myPrimitives[i])
+      {
+        case PRIMITIVE_MESH:
+          if (texturesON && myTextureIds[i] >= 0)
+            myTexturedMeshes[i].draw(myTextures[myTextureIds[i]]);
+          else
+            myPlainMeshes[i].draw();
+          break;
+        case PRIMITIVE_BOX:
+          pushMatrix();
+          applyMatrixAt(myMatrices, i * 16);
+          box(mySizes[i * 3], mySizes[i * 3 + 1], mySizes[i * 3 + 2]);
+          popMatrix();
+          break;
+        case PRIMITIVE_SPHERE:
+          pushMatrix();
+          applyMatrixAt(myMatrices, i * 16);
+          sphere(mySizes[i * 3]);
+          popMatrix();
+          break;
+      }
+    }
+
+    for (int i = 0; i < myDynamicNodes.size(); i++)
+    {
+      PMatrix3D parent = myDynamicParents.get(i);
+      pushMatrix();
+      if (parent != null)
+        applyMatrix(parent);
+      myDynamicNodes.get(i).draw();
+      popMatrix();
+    }
+  }
+}
@@ -0,0 +1,519 @@
+// Match recording. A recording starts with a snapshot of the match (ball,
+// players, drawMode and the random seed) and then appends every input that
+// changes it, stamped with the simulation step it was applied on. Because
+// inputs only land on step boundaries and the physics runs on a fixed step,
+// replaying the snapshot and the inputs step for step gives the same match.
+// The ball is written out every REPLAY_CHECKPOINT_STEPS steps so a replay
+// can tell if it ever drifts.
+//
+// Layout (big endian):
+//   int magic, int version, long seed, byte drawMode,
+//   float[3] ball position, float[3] ball speed,
+//   int playerCount, playerCount * (float travel, float speed, int n, n * (float x, float y))
+//   then events: varint steps since the last event, byte type, payload
+//   NUDGE, CROWD  byte key
+//   PLAYER        int n, n * (float x, float y)
+//   CHECKPOINT    float[3] ball position, float[3] ball speed
+
+static final int REPLAY_MAGIC   = 0x52504C59;   // "RPLY"
+static final int REPLAY_VERSION = 1;
+
+static final byte EVENT_NUDGE      = 1;
+static final byte EVENT_BLOW       = 2;
+static final byte EVENT_RESET_BALL = 3;
+static final byte EVENT_KICK_OFF   = 4;
+static final byte EVENT_CROWD      = 5;
+static final byte EVENT_PLAYER     = 6;
+static final byte EVENT_CHECKPOINT = 7;
+
+static final int REPLAY_CHECKPOINT_STEPS = 60;
+// steps run per frame while fast-forwarding, with nothing drawn
+static final int REPLAY_FAST_FORWARD_STEPS = 600;
+
+MatchInput matchInput = new MatchInput();
+
+class MatchEvent
+{
+  byte type;
+  char key;
+  List<PVector> curve;
+
+  MatchEvent(byte type, char key, List<PVector> curve)
+  {
+    this.type = type;
+    this.key = key;
+    this.curve = curve;
+  }
+}
+
+// Inputs that change the match are posted here from the event threads and
+// applied by Simulation.step() at the start of the next step, where they are
+// also recorded. While a replay runs, live input is dropped and the
+// recorded inputs are applied instead.
+class MatchInput
+{
+  private List<MatchEvent> myPending = new ArrayList<MatchEvent>();
+  private ReplayRecorder myRecorder;
+  private ReplayPlayer myReplay;
+  private boolean isRecordRequested = false;
+  private File myReplayRequest;
+  boolean isFastForward = false;
+
+  void post(byte type)
+  {
+    post(type, (char) 0);
+  }
+
+  void post(byte type, char key)
+  {
+    synchronized (myPending)
+    {
+      myPending.add(new MatchEvent(type, key, null));
+    }
+  }
+
+  void postPlayer(List<PVector> curve)
+  {
+    synchronized (myPending)
+    {
+      myPending.add(new MatchEvent(EVENT_PLAYER, (char) 0, curve));
+    }
+  }
+
+  // starts or stops recording at the next step
+  synchronized void toggleRecording()
+  {
+    isRecordRequested = true;
+  }
+
+  // replaces the match with the recording, from the next step
+  synchronized void replay(File f)
+  {
+    myReplayRequest = f;
+  }
+
+  synchronized boolean isReplaying()
+  {
+    return myReplay != null;
+  }
+
+  synchronized boolean isFastForwarding()
+  {
+    return myReplay != null && isFastForward;
+  }
+
+  // how far through the replay, 0 to 1
+  synchronized float replayProgress()
+  {
+    return myReplay == null ? 0 : myReplay.progress();
+  }
+
+  synchronized void apply(int step)
+  {
+    if (isRecordRequested)
+    {
+      isRecordRequested = false;
+      if (myRecorder != null)
+        stopRecording();
+      else if (myReplay == null)
+        startRecording(step);
+    }
+    if (myReplayRequest != null)
+    {
+      File f = myReplayRequest;
+      myReplayRequest = null;
+      if (myRecorder != null)
+        stopRecording();
+      startReplay(f, step);
+    }
+
+    List<MatchEvent> events;
+    synchronized (myPending)
+    {
+      events = new ArrayList<MatchEvent>(myPending);
+      myPending.clear();
+    }
+
+    if (myReplay != null)
+    {
+      try
+      {
+        if (!myReplay.apply(step))
+        {
+          println("Replay finished at step " + (step - myReplay.startStep()));
+          myReplay = null;
+          isFastForward = false;
+        }
+      }
+      catch (IOException e)
+      {
+        println("Replay stopped: " + e.getMessage());
+        myReplay = null;
+        isFastForward = false;
+      }
+      return;
+    }
+
+    for (MatchEvent e : events)
+    {
+      if (myRecorder != null)
+        myRecorder.record(step, e);
+      applyMatchEvent(e);
+    }
+    if (myRecorder != null && (step - myRecorder.startStep()) % REPLAY_CHECKPOINT_STEPS == 0)
+      myRecorder.checkpoint(step);
+  }
+
+  synchronized void close()
+  {
+    if (myRecorder != null)
+      stopRecording();
+  }
+
+  private void startRecording(int step)
+  {
+    File f;
+    int n = 1;
+    do
+    {
+      f = new File(dataPath("replay" + n + ".replay"));
+      n++;
+    }
+    while (f.exists());
+    try
+    {
+      f.getParentFile().mkdirs();
+      myRecorder = new ReplayRecorder(f, step, System.nanoTime());
+      println("Recording to " + f.getName());
+    }
+    catch (IOException e)
+    {
+      println("Could not record to " + f + ": " + e.getMessage());
+    }
+  }
+
+  private void stopRecording()
+  {
+    myRecorder.close();
+    println("Saved " + myRecorder.file().getName());
+    myRecorder = null;
+  }
+
+  private void startReplay(File f, int step)
+  {
+    try
+    {
+      myReplay = new ReplayPlayer(f, step);
+      println("Replaying " + f.getName());
+    }
+    catch (IOException e)
+    {
+      println("Could not replay " + f + ": " + e.getMessage());
+    }
+  }
+}
+
+// the most recent recording in the data folder, or null
+File lastRecording()
+{
+  File last = null;
+  for (int n = 1; ; n++)
+  {
+    File f = new File(dataPath("replay" + n + ".replay"));
+    if (!f.exists())
+      return last;
+    last = f;
+  }
+}
+
+void applyMatchEvent(MatchEvent e)
+{
+  switch (e.type)
+  {
+    case EVENT_NUDGE:
+      nudgeBall(ball.speed, e.key);
+      break;
+    case EVENT_BLOW:
+      crowd.shiver(AWAY_STAND);
+      crowd.shiver(HOME_STAND);
+      blowBall(ball.speed);
+      if (!matchInput.isFastForwarding())
+        windSound.play(0);
+      break;
+    case EVENT_RESET_BALL:
+      resetBall();
+      break;
+    case EVENT_KICK_OFF:
+      kickOff();
+      break;
+    case EVENT_CROWD:
+      if (e.key == 'c')
+        crowd.cheer(AWAY_STAND);
+      if (e.key == 'g')
+        crowd.groan(HOME_STAND);
+      if (e.key == 'x')
+        crowd.shiver(HOME_STAND);
+      break;
+    case EVENT_PLAYER:
+      playerCurves.add(e.curve);
+      players.add(new Player(e.curve));
+      break;
+  }
+}
+
+class ReplayRecorder
+{
+  private File myFile;
+  private DataOutputStream myOut;
+  private int myStartStep;
+  private int myLastStep;
+
+  ReplayRecorder(File f, int step, long seed) throws IOException
+  {
+    myFile = f;
+    myStartStep = step;
+    myLastStep = step;
+    myOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+    randomSeed(seed);
+
+    myOut.writeInt(REPLAY_MAGIC);
+    myOut.writeInt(REPLAY_VERSION);
+    myOut.writeLong(seed);
+    myOut.writeBoolean(drawMode);
+    writeBall();
+    myOut.writeInt(players.size());
+    for (Player p : players)
+    {
+      myOut.writeFloat(p.travel);
+      myOut.writeFloat(p.speed);
+      writeCurve(p.myCurve);
+    }
+  }
+
+  File file()
+  {
+    return myFile;
+  }
+
+  int startStep()
+  {
+    return myStartStep;
+  }
+
+  void record(int step, MatchEvent e)
+  {
+    try
+    {
+      writeHeader(step, e.type);
+      if (e.type == EVENT_NUDGE || e.type == EVENT_CROWD)
+        myOut.writeByte(e.key);
+      else if (e.type == EVENT_PLAYER)
+        writeCurve(e.curve);
+    }
+    catch (IOException ex)
+    {
+      fail(ex);
+    }
+  }
+
+  void checkpoint(int step)
+  {
+    try
+    {
+      writeHeader(step, EVENT_CHECKPOINT);
+      writeBall();
+    }
+    catch (IOException ex)
+    {
+      fail(ex);
+    }
+  }
+
+  void close()
+  {
+    try
+    {
+      myOut.close();
+    }
+    catch (IOException ex)
+    {
+      println("Could not finish " + myFile + ": " + ex.getMessage());
+    }
+  }
+
+  private void writeHeader(int step, byte type) throws IOException
+  {
+    writeVarInt(myOut, step - myLastStep);
+    myLastStep = step;
+    myOut.writeByte(type);
+  }
+
+  private void writeBall() throws IOException
+  {
+    myOut.writeFloat(ball.position.x);
+    myOut.writeFloat(ball.position.y);
+    myOut.writeFloat(ball.position.z);
+    myOut.writeFloat(ball.speed.x);
+    myOut.writeFloat(ball.speed.y);
+    myOut.writeFloat(ball.speed.z);
+  }
+
+  private void writeCurve(List<PVector> curve) throws IOException
+  {
+    myOut.writeInt(curve.size());
+    for (PVector p : curve)
+    {
+      myOut.writeFloat(p.x);
+      myOut.writeFloat(p.y);
+    }
+  }
+
+  private void fail(IOException e)
+  {
+    println("Recording to " + myFile + " failed: " + e.getMessage());
+  }
+}
+
+class ReplayPlayer
+{
+  private DataInputStream myIn;
+  private int myLength;
+  private int myRemaining;
+  private int myStartStep;
+  private int myNextStep;
+  private boolean hasWarned = false;
+  // where a checkpoint says the ball should be
+  private PVector myCheckPosition = new PVector();
+  private PVector myCheckSpeed = new PVector();
+
+  // restores the recorded snapshot; the first recorded step is step
+  ReplayPlayer(File f, int step) throws IOException
+  {
+    byte[] bytes = loadBytes(f.getAbsolutePath());
+    if (bytes == null)
+      throw new IOException("could not read " + f);
+    myLength = bytes.length;
+    myIn = new DataInputStream(new ByteArrayInputStream(bytes));
+    if (myIn.readInt() != REPLAY_MAGIC || myIn.readInt() != REPLAY_VERSION)
+      throw new IOException(f.getName() + " is not a replay");
+    myStartStep = step;
+    myNextStep = step;
+
+    randomSeed(myIn.readLong());
+    boolean recordedDrawMode = myIn.readBoolean();
+    if (!recordedDrawMode)
+      kickOff();
+    else
+      drawMode = true;
+    readBall(ball.position, ball.speed);
+    ball.previousPosition.set(ball.position);
+
+    players.clear();
+    playerCurves.clear();
+    int count = myIn.readInt();
+    for (int i = 0; i < count; i++)
+    {
+      float travel = myIn.readFloat();
+      float speed = myIn.readFloat();
+      List<PVector> curve = readCurve();
+      Player p = new Player(curve);
+      p.speed = speed;
+      p.moveTo(travel);
+      playerCurves.add(curve);
+      players.add(p);
+    }
+    myNextStep = readNextStep();
+  }
+
+  int startStep()
+  {
+    return myStartStep;
+  }
+
+  float progress()
+  {
+    return myLength == 0 ? 1 : 1 - myRemaining / (float) myLength;
+  }
+
+  // Applies everything recorded for this step. False once the recording
+  // has run out.
+  boolean apply(int step) throws IOException
+  {
+    while (myNextStep >= 0 && myNextStep <= step)
+    {
+      byte type = myIn.readByte();
+      if (type == EVENT_CHECKPOINT)
+      {
+        PVector position = myCheckPosition, speed = myCheckSpeed;
+        readBall(position, speed);
+        // PVector has no equals() of its own, so compare the floats
+        if (!hasWarned && (position.x != ball.position.x || position.y != ball.position.y
+                           || position.z != ball.position.z || speed.x != ball.speed.x
+                           || speed.y != ball.speed.y || speed.z != ball.speed.z))
+        {
+          println("Replay diverged by step " + (step - myStartStep) + ": ball at " + ball.position
+                + " instead of " + position);
+          hasWarned = true;
+        }
+      }
+      else
+      {
+        char key = 0;
+        List<PVector> curve = null;
+        if (type == EVENT_NUDGE || type == EVENT_CROWD)
+          key = (char) myIn.readByte();
+        else if (type == EVENT_PLAYER)
+          curve = readCurve();
+        applyMatchEvent(new MatchEvent(type, key, curve));
+      }
+      myNextStep = readNextStep();
+    }
+    return myNextStep >= 0;
+  }
+
+  // -1 at the end of the recording
+  private int readNextStep() throws IOException
+  {
+    myRemaining = myIn.available();
+    if (myRemaining == 0)
+      return -1;
+    return myNextStep + readVarInt(myIn);
+  }
+
+  private void readBall(PVector position, PVector speed) throws IOException
+  {
+    position.set(myIn.readFloat(), myIn.readFloat(), myIn.readFloat());
+    speed.set(myIn.readFloat(), myIn.readFloat(), myIn.readFloat());
+  }
+
+  private List<PVector> readCurve() throws IOException
+  {
+    int n = myIn.readInt();
+    List<PVector> curve = new ArrayList<PVector>(n);
+    for (int i = 0; i < n; i++)
+      curve.add(new PVector(myIn.readFloat(), myIn.readFloat()));
+    return curve;
+  }
+}
+
+static void writeVarInt(DataOutputStream out, int value) throws IOException
+{
+  while ((value & ~0x7F) != 0)
+  {
+    out.writeByte((value & 0x7F) | 0x80);
+    value >>>= 7;
+  }
+  out.writeByte(value);
+}
+
+static int readVarInt(DataInputStream in) throws IOException
+{
+  int value = 0;
+  for (int shift = 0; ; shift += 7)
+  {
+    int b = in.readUnsignedByte();
+    value |= (b & 0x7F) << shift;
+    if ((b & 0x80) == 0)
+      return value;
+  }
+}
@@ -0,0 +1,418 @@
+// Binary scene format. The XML schema understood by read() is converted once
+// into a flat record stream, saved next to the XML as <name>.scene and
+// memory-mapped on later runs. Decoding a record stream needs no string
+// parsing, and every file is decoded from a cached buffer, so a scene that
+// is used several times (or pulled in through file=) is only parsed once.
+//
+// Layout (big endian):
+//   int magic, int version, short stringCount, stringCount * UTF string
+//   then one node: GROUP_BEGIN child* GROUP_END | FILE short stringIndex
+//   where child is a node, TRANSFORM or SHAPE:
+//   TRANSFORM byte type, float a, float b, float c
+//   SHAPE     byte type, short textureIndex (-1 for none), byte flags,
+//             float r, float g, float b, float size0, float size1, float size2
+
+static final int SCENE_MAGIC   = 0x53434E45;   // "SCNE"
+static final int SCENE_VERSION = 1;
+
+static final byte SCENE_GROUP_BEGIN = 1;
+static final byte SCENE_GROUP_END   = 2;
+static final byte SCENE_TRANSFORM   = 3;
+static final byte SCENE_SHAPE       = 4;
+static final byte SCENE_FILE        = 5;
+
+static final byte TRANSFORM_TRANSLATE         = 0;
+static final byte TRANSFORM_ROTATE_CONTINUOUS = 1;
+static final byte TRANSFORM_ROTATE_PARTIAL    = 2;
+static final byte TRANSFORM_SCALE             = 3;
+
+static final byte SHAPE_SPHERE   = 0;
+static final byte SHAPE_PLANE    = 1;
+static final byte SHAPE_CYLINDER = 2;
+static final byte SHAPE_BOX      = 3;
+
+static final byte SHAPE_HAS_COLOR = 1;
+static final byte SHAPE_HAS_LIGHT = 2;
+
+// one task per file, so different files parse at the same time on the
+// loader threads and a file asked for twice is still parsed once
+Map<String, FutureTask<ByteBuffer>> sceneCache = new HashMap<String, FutureTask<ByteBuffer>>();
+
+// Builds a new node tree for the named XML scene. The encoded scene is
+// cached, so repeated loads only pay for creating the nodes.
+GroupNode loadScene(String xmlName)
+{
+  final String name = xmlName.toLowerCase();
+  FutureTask<ByteBuffer> task;
+  boolean isOpener = false;
+  synchronized (sceneCache)
+  {
+    task = sceneCache.get(name);
+    if (task == null)
+    {
+      task = new FutureTask<ByteBuffer>(new Callable<ByteBuffer>()
+      {
+        public ByteBuffer call()
+        {
+          return openScene(name);
+        }
+      });
+      sceneCache.put(name, task);
+      isOpener = true;
+    }
+  }
+  // the first caller parses unlocked, others for the same file wait on it
+  if (isOpener)
+    task.run();
+
+  ByteBuffer scene;
+  try
+  {
+    scene = task.get();
+  }
+  catch (InterruptedException e)
+  {
+    throw new RuntimeException(e);
+  }
+  catch (ExecutionException e)
+  {
+    // forget the failure so a later load tries the file again
+    synchronized (sceneCache)
+    {
+      if (sceneCache.get(name) == task)
+        sceneCache.remove(name);
+    }
+    throw new RuntimeException("Could not load scene " + xmlName, e.getCause());
+  }
+  // decoding the nodes happens unlocked, each on its own view of the buffer
+  return new SceneReader(scene.duplicate()).read();
+}
+
+ByteBuffer openScene(String xmlName)
+{
+  File xmlFile = new File(dataPath(xmlName));
+  File sceneFile = new File(dataPath(sceneFileName(xmlName)));
+
+  if (sceneFile.exists() && (!xmlFile.exists() || sceneFile.lastModified() >= xmlFile.lastModified()))
+  {
+    try
+    {
+      FileInputStream in = new FileInputStream(sceneFile);
+      try
+      {
+        FileChannel channel = in.getChannel();
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (mapped.getInt(0) == SCENE_MAGIC && mapped.getInt(4) == SCENE_VERSION)
+          return mapped;
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+    catch (IOException e)
+    {
+      println("Could not map " + sceneFile + ": " + e.getMessage());
+    }
+  }
+
+  byte[] encoded = convertScene(new XMLElement(this, xmlName));
+  if (xmlFile.exists())
+    saveBytes(sceneFile.getAbsolutePath(), encoded);
+  return ByteBuffer.wrap(encoded);
+}
+
+String sceneFileName(String xmlName)
+{
+  int dot = xmlName.lastIndexOf('.');
+  return (dot < 0 ? xmlName : xmlName.substring(0, dot)) + ".scene";
+}
+
+byte[] convertScene(XMLElement root)
+{
+  return new SceneWriter().write(root);
+}
+
+class SceneWriter
+{
+  private List<String> myStrings = new ArrayList<String>();
+  private ByteArrayOutputStream myBody = new ByteArrayOutputStream();
+  private DataOutputStream myOut = new DataOutputStream(myBody);
+
+  byte[] write(XMLElement root)
+  {
+    try
+    {
+      writeNode(root);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(SCENE_MAGIC);
+      out.writeInt(SCENE_VERSION);
+      out.writeShort(myStrings.size());
+      for (String s : myStrings)
+        out.writeUTF(s);
+      myOut.flush();
+      myBody.writeTo(out);
+      out.flush();
+      return bytes.toByteArray();
+    }
+    catch (IOException e)
+    {
+      // only in-memory streams are written to
+      throw new RuntimeException(e);
+    }
+  }
+
+  private int stringIndex(String s)
+  {
+    int index = myStrings.indexOf(s);
+    if (index < 0)
+    {
+      index = myStrings.size();
+      myStrings.add(s);
+    }
+    return index;
+  }
+
+  private void writeNode(XMLElement root) throws IOException
+  {
+    if (root.getString("file") != null)
+    {
+      myOut.writeByte(SCENE_FILE);
+      myOut.writeShort(stringIndex(root.getString("file").toLowerCase()));
+      return;
+    }
+
+    myOut.writeByte(SCENE_GROUP_BEGIN);
+    for (XMLElement node : root.getChildren())
+    {
+      if (node.getName().equalsIgnoreCase("transform"))
+      {
+        writeTransform(node);
+      }
+      else if (node.getName().equalsIgnoreCase("shape"))
+      {
+        writeShape(node);
+      }
+      else if (node.getName().equalsIgnoreCase("group"))
+      {
+        writeNode(node);
+      }
+    }
+    myOut.writeByte(SCENE_GROUP_END);
+  }
+
+  private void writeTransform(XMLElement root) throws IOException
+  {
+    String type = root.getString("type").toLowerCase();
+
+    if (type.equals("translate"))
+    {
+      PVector v = createVector(root.getChild(0).getContent().trim());
+      writeTransform(TRANSFORM_TRANSLATE, v.x, v.y, v.z);
+    }
+    else if (type.equals("rotate_continuous") || type.equals("rotate_partial"))
+    {
+      float rotateFactor = Float.valueOf(root.getChild(0).getContent().trim()).floatValue();
+      int direction = XDIRECTION;
+      if (root.getChild(1).getContent().equalsIgnoreCase("y"))
+        direction = YDIRECTION;
+      if (root.getChild(1).getContent().equalsIgnoreCase("z"))
+        direction = ZDIRECTION;
+      writeTransform(type.equals("rotate_continuous") ? TRANSFORM_ROTATE_CONTINUOUS : TRANSFORM_ROTATE_PARTIAL,
+                     rotateFactor, direction, 0);
+    }
+    else if (type.equals("scale"))
+    {
+      float scaleFactor = Float.valueOf(root.getChild(0).getContent().trim()).floatValue();
+      writeTransform(TRANSFORM_SCALE, scaleFactor, 0, 0);
+    }
+  }
+
+  private void writeTransform(byte type, float a, float b, float c) throws IOException
+  {
+    myOut.writeByte(SCENE_TRANSFORM);
+    myOut.writeByte(type);
+    myOut.writeFloat(a);
+    myOut.writeFloat(b);
+    myOut.writeFloat(c);
+  }
+
+  private void writeShape(XMLElement root) throws IOException
+  {
+    String type = root.getString("type").toLowerCase();
+    byte shape;
+    if (type.equals("sphere"))
+      shape = SHAPE_SPHERE;
+    else if (type.equals("plane"))
+      shape = SHAPE_PLANE;
+    else if (type.equals("cylinder"))
+      shape = SHAPE_CYLINDER;
+    else if (type.equals("box"))
+      shape = SHAPE_BOX;
+    else
+      return;
+
+    PVector shapeColor = null;
+    String inputTexture = null;
+    boolean hasLight = false;
+    float radius = 0, width = 0, height = 0, length = 0, depth = 0;
+
+    for (XMLElement node : root.getChildren())
+    {
+      String name = node.getName();
+      String content = node.getContent().trim();
+      if (name.equalsIgnoreCase("color"))
+        shapeColor = createVector(content);
+      else if (name.equalsIgnoreCase("texture"))
+        inputTexture = content;
+      else if (name.equalsIgnoreCase("light"))
+        hasLight = (Float.valueOf(content).floatValue() == 1);
+      else if (name.equalsIgnoreCase("radius"))
+        radius = Float.valueOf(content).floatValue();
+      else if (name.equalsIgnoreCase("width"))
+        width = Float.valueOf(content).floatValue();
+      else if (name.equalsIgnoreCase("height"))
+        height = Float.valueOf(content).floatValue();
+      else if (name.equalsIgnoreCase("length"))
+        length = Float.valueOf(content).floatValue();
+      else if (name.equalsIgnoreCase("depth"))
+        depth = Float.valueOf(content).floatValue();
+    }
+
+    int flags = 0;
+    if (shapeColor != null)
+      flags |= SHAPE_HAS_COLOR;
+    if (hasLight)
+      flags |= SHAPE_HAS_LIGHT;
+
+    myOut.writeByte(SCENE_SHAPE);
+    myOut.writeByte(shape);
+    myOut.writeShort(inputTexture == null ? -1 : stringIndex(inputTexture));
+    myOut.writeByte(flags);
+    myOut.writeFloat(shapeColor == null ? 0 : shapeColor.x);
+    myOut.writeFloat(shapeColor == null ? 0 : shapeColor.y);
+    myOut.writeFloat(shapeColor == null ? 0 : shapeColor.z);
+    switch (shape)
+    {
+      case SHAPE_SPHERE:   writeSizes(radius, 0, 0);          break;
+      case SHAPE_PLANE:    writeSizes(width, length, 0);      break;
+      case SHAPE_CYLINDER: writeSizes(width, height, 0);      break;
+      case SHAPE_BOX:      writeSizes(width, height, depth);  break;
+    }
+  }
+
+  private void writeSizes(float a, float b, float c) throws IOException
+  {
+    myOut.writeFloat(a);
+    myOut.writeFloat(b);
+    myOut.writeFloat(c);
+  }
+}
+
+class SceneReader
+{
+  private ByteBuffer myBuffer;
+  private String[] myStrings;
+
+  SceneReader(ByteBuffer buffer)
+  {
+    myBuffer = buffer;
+  }
+
+  GroupNode read()
+  {
+    myBuffer.position(8);
+    myStrings = new String[myBuffer.getShort()];
+    for (int i = 0; i < myStrings.length; i++)
+      myStrings[i] = readUTF();
+    return readNode();
+  }
+
+  // writeUTF's length-prefixed encoding; plain UTF-8 for the file names used here
+  private String readUTF()
+  {
+    byte[] bytes = new byte[myBuffer.getShort() & 0xFFFF];
+    myBuffer.get(bytes);
+    try
+    {
+      return new String(bytes, "UTF-8");
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private GroupNode readNode()
+  {
+    byte op = myBuffer.get();
+    if (op == SCENE_FILE)
+      return loadScene(myStrings[myBuffer.getShort()]);
+
+    GroupNode result = new GroupNode();
+    while ((op = myBuffer.get()) != SCENE_GROUP_END)
+    {
+      switch (op)
+      {
+        case SCENE_TRANSFORM:
+          result.addTransform(readTransform());
+          break;
+        case SCENE_SHAPE:
+          result.addChild(readShape());
+          break;
+        case SCENE_GROUP_BEGIN:
+        case SCENE_FILE:
+          myBuffer.position(myBuffer.position() - 1);
+          result.addChild(readNode());
+          break;
+        default:
+          throw new IllegalStateException("Bad scene record " + op + " at " + (myBuffer.position() - 1));
+      }
+    }
+    return result;
+  }
+
+  private Transform readTransform()
+  {
+    byte type = myBuffer.get();
+    float a = myBuffer.getFloat();
+    float b = myBuffer.getFloat();
+    float c = myBuffer.getFloat();
+    switch (type)
+    {
+      case TRANSFORM_TRANSLATE:         return new TranslateTransform(a, b, c);
+      case TRANSFORM_ROTATE_CONTINUOUS: return new ContinuousRotateTransform(a, (int) b);
+      case TRANSFORM_ROTATE_PARTIAL:    return new PartialRotateTransform(a, (int) b);
+      case TRANSFORM_SCALE:             return new ScaleTransform(a);
+    }
+    return null;
+  }
+
+  private ShapeNode readShape()
+  {
+    byte type = myBuffer.get();
+    short texture = myBuffer.getShort();
+    byte flags = myBuffer.get();
+    PVector shapeColor = new PVector(myBuffer.getFloat(), myBuffer.getFloat(), myBuffer.getFloat());
+    float a = myBuffer.getFloat();
+    float b = myBuffer.getFloat();
+    float c = myBuffer.getFloat();
+
+    String inputTexture = texture < 0 ? null : myStrings[texture];
+    if ((flags & SHAPE_HAS_COLOR) == 0)
+      shapeColor = null;
+
+    ShapeNode result = null;
+    switch (type)
+    {
+      case SHAPE_SPHERE:   result = new SphereNode(inputTexture, shapeColor, a, (flags & SHAPE_HAS_LIGHT) != 0); break;
+      case SHAPE_PLANE:    result = new PlaneNode(inputTexture, shapeColor, a, b);     break;
+      case SHAPE_CYLINDER: result = new CylinderNode(inputTexture, shapeColor, a, b);  break;
+      case SHAPE_BOX:      result = new BoxNode(inputTexture, shapeColor, a, b, c);    break;
+    }
+    collisionList.add(result);
+    return result;
+  }
+}
@@ -0,0 +1,100 @@
+// Runs tasks at a time on the game clock, on the animation thread, in place
+// of java.util.Timer, which starts a thread for every Timer. The clock is the
+// simulation's, so nothing fires or runs out while the sketch is paused.
+Scheduler scheduler = new Scheduler();
+
+// Like TimerTask: subclass it and schedule it with the scheduler.
+abstract class ScheduledTask implements Runnable, Comparable<ScheduledTask>
+{
+  private long myTime;
+  private long myPeriod;
+  private long mySequence;
+  private boolean isCancelled = false;
+
+  // stops the task; a repeating task can call this from its own run()
+  void cancel()
+  {
+    isCancelled = true;
+  }
+
+  // earliest first, and in the order they were scheduled for the same time
+  public int compareTo(ScheduledTask other)
+  {
+    if (myTime != other.myTime)
+      return myTime < other.myTime ? -1 : 1;
+    return mySequence < other.mySequence ? -1 : (mySequence == other.mySequence ? 0 : 1);
+  }
+}
+
+class Scheduler
+{
+  private PriorityQueue<ScheduledTask> myQueue = new PriorityQueue<ScheduledTask>();
+  private long myNow = 0;
+  private long mySequence = 0;
+
+  // game time in milliseconds
+  synchronized long now()
+  {
+    return myNow;
+  }
+
+  synchronized int pending()
+  {
+    return myQueue.size();
+  }
+
+  // runs task once, delay milliseconds from now
+  void schedule(ScheduledTask task, long delay)
+  {
+    scheduleAtFixedRate(task, delay, 0);
+  }
+
+  // Runs task delay milliseconds from now, then every period milliseconds.
+  // A frame that covers several periods runs it several times, as Timer
+  // would have.
+  synchronized void scheduleAtFixedRate(ScheduledTask task, long delay, long period)
+  {
+    task.myTime = myNow + delay;
+    task.myPeriod = period;
+    task.isCancelled = false;
+    enqueue(task);
+  }
+
+  // Moves the clock on to now and runs everything due by then, oldest
+  // first. Tasks run outside the lock so they can schedule more.
+  void advanceTo(long now)
+  {
+    while (true)
+    {
+      ScheduledTask task;
+      synchronized (this)
+      {
+        task = myQueue.peek();
+        if (task == null || task.myTime > now)
+        {
+          myNow = Math.max(myNow, now);
+          return;
+        }
+        myQueue.poll();
+        myNow = task.myTime;
+      }
+      if (task.isCancelled)
+        continue;
+      task.run();
+      if (task.myPeriod > 0 && !task.isCancelled)
+      {
+        synchronized (this)
+        {
+          task.myTime += task.myPeriod;
+          enqueue(task);
+        }
+      }
+    }
+  }
+
+  private void enqueue(ScheduledTask task)
+  {
+    task.mySequence = mySequence++;
+    myQueue.add(task);
+  }
+}
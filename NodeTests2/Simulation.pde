@@ -0,0 +1,116 @@
+// The game was tuned with one physics update per frame at frameRate(30), so
+// speeds and gravity are in units per 1/30 s. The simulation keeps those
+// units and scales each step by how many of those frames it covers.
+static final float REFERENCE_RATE  = 30;
+static final float SIMULATION_RATE = 60;
+
+Simulation simulation = new Simulation(SIMULATION_RATE);
+
+// Fixed timestep stepper. Real time is accumulated every frame and consumed
+// in whole steps, so the game behaves the same whatever the frame rate;
+// the leftover fraction of a step is exposed as alpha() for interpolating
+// what gets drawn.
+class Simulation
+{
+  private float myStepSeconds;
+  private float myAccumulator = 0;
+  private long myLastTime = -1;
+  private float myAlpha = 1;
+  private int mySteps = 0;
+
+  // caps catch-up after a stall (or a pause) instead of spiralling
+  int maxStepsPerFrame = 8;
+
+  Simulation(float stepsPerSecond)
+  {
+    myStepSeconds = 1 / stepsPerSecond;
+  }
+
+  // fraction of a reference frame covered by one step
+  float stepFrames()
+  {
+    return myStepSeconds * REFERENCE_RATE;
+  }
+
+  float alpha()
+  {
+    return myAlpha;
+  }
+
+  int steps()
+  {
+    return mySteps;
+  }
+
+  // simulated time, the clock the scheduler runs on
+  long millis()
+  {
+    return (long) mySteps * 1000 / (long) (1 / myStepSeconds + 0.5);
+  }
+
+  void advance()
+  {
+    long now = System.nanoTime();
+    if (myLastTime >= 0)
+      myAccumulator += (now - myLastTime) / 1e9;
+    myLastTime = now;
+
+    int steps = 0;
+    while (myAccumulator >= myStepSeconds && steps < maxStepsPerFrame)
+    {
+      step();
+      myAccumulator -= myStepSeconds;
+      steps++;
+    }
+    if (steps == maxStepsPerFrame)
+      myAccumulator = min(myAccumulator, myStepSeconds);
+    myAlpha = myAccumulator / myStepSeconds;
+  }
+
+  // drops time that passed while nothing was being simulated
+  void resume()
+  {
+    myLastTime = -1;
+    myAccumulator = 0;
+  }
+
+  // Runs up to the given number of steps straight away, without waiting on
+  // the clock, for as long as a replay is being fast-forwarded.
+  void skip(int steps)
+  {
+    for (int i = 0; i < steps && matchInput.isFastForwarding(); i++)
+      step();
+    resume();
+  }
+
+  void step()
+  {
+    float frames = stepFrames();
+    profiler.begin(PROFILE_PHYSICS);
+    // input lands on step boundaries only, so a recording can replay it
+    matchInput.apply(mySteps);
+    mySteps++;
+
+    // the ball only comes into play once the players are planned
+    if (!drawMode)
+    {
+      for (int i = 0; i < balls.size(); i++)
+      {
+        Ball b = balls.get(i);
+        b.step(frames);
+        boundBall(b);
+        checkGoal(b);
+        // collisions test where the rules left the ball
+        b.update();
+      }
+    }
+
+    for (int i = 0; i < players.size(); i++)
+      players.get(i).step(frames);
+    profiler.end(PROFILE_PHYSICS);
+
+    profiler.begin(PROFILE_COLLISIONS);
+    resolveCollisions();
+    profiler.end(PROFILE_COLLISIONS);
+  }
+}
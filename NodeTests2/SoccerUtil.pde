@@ -1,122 +1,143 @@
-  void boundBall()
+// The match rules, on plain position and speed vectors in the universe's
+// frame. The game applies them to its Balls through the wrappers at the end,
+// which add the crowd and the sounds, and HeadlessMatch applies them to its
+// own vectors, so a headless match plays by exactly the game's rules.
+
+static final int BALL_RADIUS = 10;
+
+// where the ball is dropped in from at the start of a match
+static void dropBall(PVector position, PVector speed)
+{
+  position.set(0, -100, 0);
+  speed.set(0, 4, 0);
+}
+
+// one step of flight covering the given number of reference frames
+static void stepBall(PVector position, PVector speed, float frames)
+{
+  speed.y += gravity * frames;
+  position.x += speed.x * frames;
+  position.y += speed.y * frames;
+  position.z += speed.z * frames;
+}
+
+static void boundBall(PVector position, PVector speed, float radius)
+{
+  if (position.y + radius >= LOWER_Y_BOUND)
   {
-    if (ball.position.y + ball.radius >= LOWER_Y_BOUND)
-     {
-       ball.speed.y *= -.8;
-       ball.position.y = LOWER_Y_BOUND - ball.radius -1;
-     }
-     if (ball.position.y - ball.radius <= UPPER_Y_BOUND)
-     {
-       ball.speed.y *= -.8;
-       ball.position.y = UPPER_Y_BOUND + ball.radius +1;
-     }
-     if (ball.position.x + ball.radius >= LOWER_X_BOUND)
-     {
-       ball.speed.x *= -.8;
-       ball.position.x = LOWER_X_BOUND - ball.radius -1;
-     }
-     if (ball.position.x - ball.radius <= UPPER_X_BOUND)
-     {
-       ball.speed.x *= -.8;
-       ball.position.x = UPPER_X_BOUND + ball.radius +1;
-     }
-     if (ball.position.z + ball.radius >= LOWER_Z_BOUND)
-     {
-       ball.speed.z *= -.8;
-       ball.position.z = LOWER_Z_BOUND - ball.radius -1;
-     }
-     if (ball.position.z - ball.radius <= UPPER_Z_BOUND)
-     {
-       ball.speed.z *= -.8;
-       ball.position.z = UPPER_Z_BOUND + ball.radius +1;
-     }
-        
+    speed.y *= -.8;
+    position.y = LOWER_Y_BOUND - radius -1;
   }
-  void resetBall()
+  if (position.y - radius <= UPPER_Y_BOUND)
   {
-   ball.position.x = 0;
-   ball.position.y = -10;
-   ball.position.z = 0;
-   ball.speed.x = 0;
-   ball.speed.y = 0;
-   ball.speed.z = 0;
+    speed.y *= -.8;
+    position.y = UPPER_Y_BOUND + radius +1;
   }
-
-  void checkGoal()
+  if (position.x + radius >= LOWER_X_BOUND)
+  {
+    speed.x *= -.8;
+    position.x = LOWER_X_BOUND - radius -1;
+  }
+  if (position.x - radius <= UPPER_X_BOUND)
+  {
+    speed.x *= -.8;
+    position.x = UPPER_X_BOUND + radius +1;
+  }
+  if (position.z + radius >= LOWER_Z_BOUND)
+  {
+    speed.z *= -.8;
+    position.z = LOWER_Z_BOUND - radius -1;
+  }
+  if (position.z - radius <= UPPER_Z_BOUND)
   {
-    
-    if (ball.position.z + ball.radius >= LOWER_Z_BOUND - 20)
-     {
-       if (isWithinGoalDimensions())
-       {
-         spectatorCheer(homeSpectators);
-         spectatorGroan(awaySpectators);
-         cheerSound.play(0);
-         resetBall();
-       }
-     }
-     
-     if (ball.position.z - ball.radius <= UPPER_Z_BOUND + 20)
-     {
-       if (isWithinGoalDimensions())
-       {
-         spectatorCheer(awaySpectators);
-         spectatorGroan(homeSpectators);
-         cheerSound.play(0);
-         resetBall();
-       }
-     }
-     
-     
-
-    
+    speed.z *= -.8;
+    position.z = UPPER_Z_BOUND + radius +1;
   }
-  
-  void spectatorCheer(List<Spectator> spectatorList)
+}
+
+// HOME_STAND when the ball is in the far goal, AWAY_STAND when it is in the
+// near one, otherwise -1
+static int goalScored(PVector position, float radius)
+{
+  if (!isWithinGoalDimensions(position))
+    return -1;
+  if (position.z + radius >= LOWER_Z_BOUND - 20)
+    return HOME_STAND;
+  if (position.z - radius <= UPPER_Z_BOUND + 20)
+    return AWAY_STAND;
+  return -1;
+}
+
+static boolean isWithinGoalDimensions(PVector position)
+{
+  return (position.y > -100 && position.x < 100 && position.x > -100);
+}
+
+static void resetBall(PVector position, PVector speed)
+{
+  position.set(0, -10, 0);
+  speed.set(0, 0, 0);
+}
+
+// w/a/s/d from the keyboard
+static void nudgeBall(PVector speed, char key)
+{
+  if (key == 'a')
+    speed.z -= .8;
+  if (key == 'd')
+    speed.z += .8;
+  if (key == 'w')
+    speed.x += .8;
+  if (key == 's')
+    speed.x -= .8;
+}
+
+// a blow into the microphone
+static void blowBall(PVector speed)
+{
+  speed.y -= 3;
+}
+
+// whether a player touches the ball, both given in world space
+static boolean touchesBall(PVector player, float playerRadius, PVector ball, float ballRadius)
+{
+  return player.dist(ball) < playerRadius + ballRadius;
+}
+
+  void boundBall()
   {
-    for(Spectator s:spectatorList)
-       {
-         int duration = int(random(3,5));
-         float frequency = int(random (15,25));
-          s.cheer(duration, TWO_PI/frequency);
-       }
+    boundBall(ball);
   }
-  
-  void spectatorShiver(List<Spectator> spectatorList)
+
+  void boundBall(Ball ball)
   {
-    for(Spectator s:spectatorList)
-       {
-         int duration = int(random(4,5));
-         float frequency = int(random (15,20));
-          s.shiver(duration, TWO_PI/frequency);
-       }
+    boundBall(ball.position, ball.speed, ball.radius);
   }
-  
-  void spectatorGroan(List<Spectator> spectatorList)
+
+  void resetBall()
   {
-    for(Spectator s:spectatorList)
-          s.groan();
+    resetBall(ball);
   }
-  
-  boolean isWithinGoalDimensions()
+
+  void resetBall(Ball ball)
   {
-    return (ball.position.y > -100 && ball.position.x < 100 && ball.position.x > -100);
+    resetBall(ball.position, ball.speed);
+    ball.previousPosition.set(ball.position);
   }
-  
-    PVector makeVectorFromString (String s)
+
+  void checkGoal()
   {
-    String temp = s.substring(1, s.length() - 1);
-    String[] components = temp.split(",");
-    return new PVector(new Float(components[0]), new Float(components[1]), new Float(components[2])); 
+    checkGoal(ball);
   }
 
-   List<PVector> getCurveFromText (String s)
+  void checkGoal(Ball ball)
   {
-     String[] curvePoints = loadStrings(s);
-     List<PVector> result = new ArrayList<PVector>();
-     for(String str2: curvePoints)
-     {
-       result.add(makeVectorFromString(str2));
-     }
-     return result;
+    int stand = goalScored(ball.position, ball.radius);
+    if (stand < 0)
+      return;
+    crowd.cheer(stand);
+    crowd.groan(stand == HOME_STAND ? AWAY_STAND : HOME_STAND);
+    if (!matchInput.isFastForwarding())
+      cheerSound.play(0);
+    resetBall(ball);
   }
@@ -0,0 +1,153 @@
+// Every image is decoded once and shared by all nodes that use it.
+TextureCache textureCache = new TextureCache();
+
+class TextureCache
+{
+  private class Entry
+  {
+    PImage image;
+    boolean loaded;
+    int references;
+    long bytes;
+  }
+
+  // access ordered, so iteration starts at the least recently used image
+  private LinkedHashMap<String, Entry> myEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private long myMaxBytes = 0;
+  private long myBytesHeld = 0;
+  private int myHits = 0;
+  private int myMisses = 0;
+
+  // Returns the shared image for path, loading it on first use. Every call
+  // has to be matched by a release() once the image is no longer drawn.
+  // Images are decoded outside the cache lock so loader threads can decode
+  // different files at the same time.
+  PImage acquire(String path)
+  {
+    Entry entry;
+    boolean isLoader = false;
+    synchronized (this)
+    {
+      entry = myEntries.get(path);
+      if (entry != null)
+      {
+        myHits++;
+      }
+      else
+      {
+        myMisses++;
+        entry = new Entry();
+        myEntries.put(path, entry);
+        isLoader = true;
+      }
+      entry.references++;
+    }
+
+    if (isLoader)
+    {
+      PImage image = null;
+      boolean isDecoded = false;
+      try
+      {
+        image = loadImage(path);
+        isDecoded = true;
+      }
+      finally
+      {
+        // waiters are woken even if decoding threw; they get null and the
+        // entry is dropped so a later acquire() tries the file again
+        synchronized (this)
+        {
+          entry.image = image;
+          entry.loaded = true;
+          if (image != null)
+          {
+            entry.bytes = (long) image.width * image.height * 4;
+            myBytesHeld += entry.bytes;
+          }
+          if (!isDecoded && myEntries.get(path) == entry)
+            myEntries.remove(path);
+          notifyAll();
+          evict();
+        }
+      }
+      return image;
+    }
+
+    synchronized (this)
+    {
+      while (!entry.loaded)
+      {
+        try
+        {
+          wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          return null;
+        }
+      }
+      return entry.image;
+    }
+  }
+
+  synchronized void release(String path)
+  {
+    Entry entry = myEntries.get(path);
+    if (entry == null || entry.references == 0)
+      return;
+    entry.references--;
+    evict();
+  }
+
+  // Unreferenced images are kept for reuse until more than maxBytes are
+  // held, then dropped least recently used first. 0 keeps everything.
+  synchronized void setMaxBytes(long maxBytes)
+  {
+    myMaxBytes = maxBytes;
+    evict();
+  }
+
+  private void evict()
+  {
+    if (myMaxBytes <= 0)
+      return;
+    Iterator<Entry> it = myEntries.values().iterator();
+    while (myBytesHeld > myMaxBytes && it.hasNext())
+    {
+      Entry entry = it.next();
+      if (entry.references == 0 && entry.loaded)
+      {
+        myBytesHeld -= entry.bytes;
+        it.remove();
+      }
+    }
+  }
+
+  synchronized int hits()
+  {
+    return myHits;
+  }
+
+  synchronized int misses()
+  {
+    return myMisses;
+  }
+
+  synchronized long bytesHeld()
+  {
+    return myBytesHeld;
+  }
+
+  synchronized int size()
+  {
+    return myEntries.size();
+  }
+
+  synchronized String report()
+  {
+    return "textures: " + myEntries.size() + " images, " + (myBytesHeld / 1024) + " KB, "
+         + myHits + " hits, " + myMisses + " misses";
+  }
+}
@@ -1,6 +1,21 @@
 abstract class Transform
 {
   abstract void applyTransform();
+  
+  // composes the same transform into a cached matrix
+  abstract void applyTo(PMatrix3D matrix);
+  
+  // true when applyTo would produce a different matrix than last time
+  boolean hasChanged()
+  {
+    return false;
+  }
+  
+  // false for transforms that change over time
+  boolean isStatic()
+  {
+    return true;
+  }
 }
 
 class ScaleTransform extends Transform
@@ -16,6 +31,11 @@ class ScaleTransform extends Transform
   {
     scale(myScaleFactor);
   }
+  
+  void applyTo(PMatrix3D matrix)
+  {
+    matrix.scale(myScaleFactor);
+  }
 }
 class PartialRotateTransform extends Transform
 {
@@ -40,12 +60,26 @@ class PartialRotateTransform extends Transform
                      break;
     }
   }
+  
+  void applyTo(PMatrix3D matrix)
+  {
+    switch (myDirection) 
+    {
+            case 0:  matrix.rotateX(PI/myRotateFactor);
+                     break;
+            case 1:  matrix.rotateY(PI/myRotateFactor);
+                     break;
+            case 2:  matrix.rotateZ(PI/myRotateFactor);
+                     break;
+    }
+  }
 }
 
 class ContinuousRotateTransform extends Transform
 {
   float myRotateFactor;
   int myDirection;
+  int myLastFrame = -1;
   
   ContinuousRotateTransform(float rotateFactor, int direction)
   {
@@ -65,6 +99,30 @@ class ContinuousRotateTransform extends Transform
                      break;
     }
   }
+  
+  void applyTo(PMatrix3D matrix)
+  {
+    myLastFrame = frameCount;
+    switch (myDirection) 
+    {
+            case 0:  matrix.rotateX(frameCount*PI/myRotateFactor);
+                     break;
+            case 1:  matrix.rotateY(frameCount*PI/myRotateFactor);
+                     break;
+            case 2:  matrix.rotateZ(frameCount*PI/myRotateFactor);
+                     break;
+    }
+  }
+  
+  boolean hasChanged()
+  {
+    return frameCount != myLastFrame;
+  }
+  
+  boolean isStatic()
+  {
+    return false;
+  }
 }
 
 class TranslateTransform extends Transform
@@ -89,6 +147,11 @@ class TranslateTransform extends Transform
   {
     translate(myTranslateX, myTranslateY, myTranslateZ);
   }
+  
+  void applyTo(PMatrix3D matrix)
+  {
+    matrix.translate(myTranslateX, myTranslateY, myTranslateZ);
+  }
 }
 
 
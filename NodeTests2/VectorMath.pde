@@ -0,0 +1,24 @@
+// PVector's static helpers return a new vector on every call, which adds up
+// to a lot of garbage once there is a crowd on screen. These write into a
+// vector the caller keeps instead; out may be one of the arguments.
+
+static PVector subInto(PVector a, PVector b, PVector out)
+{
+  out.set(a.x - b.x, a.y - b.y, a.z - b.z);
+  return out;
+}
+
+static PVector addInto(PVector a, PVector b, PVector out)
+{
+  out.set(a.x + b.x, a.y + b.y, a.z + b.z);
+  return out;
+}
+
+// the part of vector along direction
+static PVector componentInto(PVector vector, PVector direction, PVector out)
+{
+  float m = direction.mag();
+  float s = (vector.x * direction.x + vector.y * direction.y + vector.z * direction.z) / (m * m);
+  out.set(direction.x * s, direction.y * s, direction.z * s);
+  return out;
+}
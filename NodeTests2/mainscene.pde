@@ -7,6 +7,10 @@ class MainScene implements Scene {
 //    mySkyBox = skyBox;
 //  }
   
+  boolean isLoaded() {
+    return true;
+  }
+  
   Scene update() {
     background(0xFF000000);
     nightSkyBox.render();
@@ -5,118 +5,110 @@ class SkyBox {
   private PImage left;
   private PImage top;
   private PImage bottom;
-   
+
+  private Mesh frontMesh;
+  private Mesh rightMesh;
+  private Mesh backMesh;
+  private Mesh leftMesh;
+  private Mesh topMesh;
+  private Mesh bottomMesh;
+
   SkyBox(String frontTextureFileName,
          String rightTextureFileName,
          String backTextureFileName,
          String leftTextureFileName,
          String topTextureFileName,
          String bottomTextureFileName) {
-     
-    front   = loadImage(frontTextureFileName);
-    right   = loadImage(rightTextureFileName);
-    back    = loadImage(backTextureFileName);
-    left    = loadImage(leftTextureFileName);
-    top     = loadImage(topTextureFileName);
-    bottom  = loadImage(bottomTextureFileName);
+    this(frontTextureFileName, rightTextureFileName, backTextureFileName,
+         leftTextureFileName, topTextureFileName, bottomTextureFileName, 30, 1024);
   }
-   
+
+  // subdivisions is the number of quads along each edge of a face; face
+  // images larger than maxTextureSize are scaled down once here
+  SkyBox(String frontTextureFileName,
+         String rightTextureFileName,
+         String backTextureFileName,
+         String leftTextureFileName,
+         String topTextureFileName,
+         String bottomTextureFileName,
+         int subdivisions,
+         int maxTextureSize) {
+
+    front   = faceTexture(frontTextureFileName, maxTextureSize);
+    right   = faceTexture(rightTextureFileName, maxTextureSize);
+    back    = faceTexture(backTextureFileName, maxTextureSize);
+    left    = faceTexture(leftTextureFileName, maxTextureSize);
+    top     = faceTexture(topTextureFileName, maxTextureSize);
+    bottom  = faceTexture(bottomTextureFileName, maxTextureSize);
+
+    Mesh face = buildFace(subdivisions);
+    PMatrix3D m = new PMatrix3D();
+    frontMesh = face;
+    m.rotateY(HALF_PI);
+    leftMesh = face.transformed(m);
+    m.rotateY(HALF_PI);
+    backMesh = face.transformed(m);
+    m.rotateY(HALF_PI);
+    rightMesh = face.transformed(m);
+    m.reset();
+    m.rotateX(HALF_PI);
+    bottomMesh = face.transformed(m);
+    m.rotateX(PI);
+    topMesh = face.transformed(m);
+  }
+
   private int halfWidth    = 1500;
   private int halfHeight   = 1500;
   private int halfDistance = 1499;
-   
-  private int   dx = 100;
-  private int   dy = 100;
-  private float textureDY = (float)dy / (2 * halfHeight);  
-   
+
+  private PImage faceTexture(String fileName, int maxTextureSize) {
+    PImage image = textureCache.acquire(fileName);
+    if (image == null || (image.width <= maxTextureSize && image.height <= maxTextureSize))
+      return image;
+    PImage scaled = image.get();
+    if (image.width >= image.height)
+      scaled.resize(maxTextureSize, 0);
+    else
+      scaled.resize(0, maxTextureSize);
+    textureCache.release(fileName);
+    return scaled;
+  }
+
+  // one face of the box, facing the origin from -halfDistance on the z axis
+  private Mesh buildFace(int subdivisions) {
+    float dx = 2.0 * halfWidth / subdivisions;
+    float dy = 2.0 * halfHeight / subdivisions;
+    float textureDX = 1.0 / subdivisions;
+    float textureDY = 1.0 / subdivisions;
+
+    MeshBuilder builder = new MeshBuilder();
+    builder.beginStrip(QUADS, true);
+    for(int j = 0; j < subdivisions; j++) {
+      float y = -halfHeight + j * dy;
+      float textureY = j * textureDY;
+      for(int i = 0; i < subdivisions; i++) {
+        float x = -halfWidth + i * dx;
+        float textureX = i * textureDX;
+        builder.vertex(x,      y,      -halfDistance, textureX,             textureY);
+        builder.vertex(x,      y + dy, -halfDistance, textureX,             textureY + textureDY);
+        builder.vertex(x + dx, y + dy, -halfDistance, textureX + textureDX, textureY + textureDY);
+        builder.vertex(x + dx, y,      -halfDistance, textureX + textureDX, textureY);
+      }
+    }
+    return builder.build();
+  }
+
   void render() {
-    pushMatrix();
+    profiler.begin(PROFILE_SKYBOX);
     noStroke();
     noLights();
-     
-    textureMode(NORMALIZED);
-    
-  
-    
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(front);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }
-     
-    rotateY(HALF_PI);
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(left);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }
-     
-    rotateY(HALF_PI);
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(back);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }
- 
-    rotateY(HALF_PI);
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(right);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }
-    popMatrix();
-     
-    pushMatrix();
-    rotateX(HALF_PI);
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(bottom);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }
-    rotateX(PI);
-    for(int y = -halfHeight; y < halfHeight; y += dy) {
-      float textureY = (float)(y + halfHeight) / (2 * halfHeight);
-      beginShape(QUAD_STRIP);
-      texture(top);
-      for(int x = -halfWidth; x <= halfWidth; x += dx) {
-        float textureX = (float)(x + halfWidth) / (2 * halfWidth);
-        vertex(x, y,      -halfDistance, textureX, textureY);
-        vertex(x, y + dy, -halfDistance, textureX, textureY + textureDY);
-      }
-      endShape();
-    }   
-     
-    popMatrix();
+
+    frontMesh.draw(front);
+    leftMesh.draw(left);
+    backMesh.draw(back);
+    rightMesh.draw(right);
+    bottomMesh.draw(bottom);
+    topMesh.draw(top);
+    profiler.end(PROFILE_SKYBOX);
   }
 }
-
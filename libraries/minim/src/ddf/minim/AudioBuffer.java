@@ -21,9 +21,9 @@ package ddf.minim;
 /**
  * An <code>AudioBuffer</code> is specifically a buffer of floating point samples 
  * corresponding to a single channel of streaming audio. It is readonly, but you 
- * can obtain a copy of the samples in the buffer by using {@link #toArray()}. In 
- * fact, when drawing a waveform, you should use <code>toArray</code> rather than 
- * iterating over the buffer itself. This is because it is possible that the samples 
+ * can obtain a copy of the samples in the buffer by using {@link #toArray()} or 
+ * {@link #copyInto(float[])}. In fact, when drawing a waveform, you should use 
+ * one of those rather than iterating over the buffer itself. This is because it is possible that the samples 
  * in the buffer will be replaced with new ones between calls to {@link #get(int)}, 
  * which results in a waveform that appears to have discontinuities in it.
  * 
@@ -67,4 +67,17 @@ public interface AudioBuffer
    * @return a new float array containing the buffer's samples
    */
   float[] toArray();
+  
+  /**
+   * Copies the samples in the buffer into <code>out</code>, which must be
+   * at least <code>size()</code> long. Like {@link #toArray()} the copy is 
+   * always one whole buffer from the audio system, but nothing is allocated, 
+   * so it is the one to use when polling the buffer every frame.
+   * 
+   * @param out
+   *          the array to copy the samples into
+   *          
+   * @return <code>out</code>
+   */
+  float[] copyInto(float[] out);
 }
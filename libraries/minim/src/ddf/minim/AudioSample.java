@@ -28,7 +28,10 @@ import ddf.minim.spi.AudioStream;
  * available and <code>AudioEffect</code>s can be attached to it, but there
  * are not the cueing abilities found on an <code>AudioSnippet</code> and
  * <code>AudioPlayer</code>. All you can do is <code>trigger()</code> the
- * sound. However, you can trigger the sound even if it is still playing back.
+ * sound. However, you can trigger the sound even if it is still playing back,
+ * as many times over as you like unless you limit it with 
+ * {@link #setMaxVoices(int)}, and each trigger can have its own gain, pan 
+ * and playback rate.
  * It is not advised that you use this class for long sounds (like entire songs,
  * for example) because the entire file is kept in memory.
  * 
@@ -41,6 +44,23 @@ import ddf.minim.spi.AudioStream;
 public abstract class AudioSample extends AudioSource 
                                   implements BufferedAudio, Triggerable
 {
+  /**
+   * When every voice is playing, a new trigger takes over the one that 
+   * started first.
+   */
+  public static final int STEAL_OLDEST = 0;
+  
+  /**
+   * When every voice is playing, a new trigger takes over the one with the
+   * lowest gain.
+   */
+  public static final int STEAL_QUIETEST = 1;
+  
+  /**
+   * When every voice is playing, a new trigger is dropped.
+   */
+  public static final int STEAL_NONE = 2;
+  
   /**
    * Constructs an AudioSample object that gets its audio from stream.
    * 
@@ -56,4 +76,38 @@ public abstract class AudioSample extends AudioSource
    * @return the AudioMetaData for the sample.
    */
   public abstract AudioMetaData getMetaData();
+  
+  /**
+   * Triggers the sound to play once, <code>gain</code> times as loud, 
+   * panned from -1 (left) to 1 (right) and played back <code>rate</code> 
+   * times as fast, which also changes its pitch.
+   * 
+   * @param gain the amplitude to play at, 1 is as recorded
+   * @param pan where the sound sits between the left and right channels
+   * @param rate the playback speed, 1 is as recorded
+   */
+  public abstract void trigger(float gain, float pan, float rate);
+  
+  /**
+   * Sets how many triggers can play at once. There is no limit unless one
+   * is set.
+   * 
+   * @param voices the most triggers that can play at once
+   */
+  public abstract void setMaxVoices(int voices);
+  
+  /**
+   * Sets what happens to a trigger when the most voices are already playing:
+   * one of STEAL_OLDEST (the default), STEAL_QUIETEST or STEAL_NONE.
+   * 
+   * @param policy the voice stealing policy
+   */
+  public abstract void setVoiceStealing(int policy);
+  
+  /**
+   * Returns how many triggers were playing at the end of the last buffer.
+   * 
+   * @return the number of triggers playing
+   */
+  public abstract int activeVoices();
 }
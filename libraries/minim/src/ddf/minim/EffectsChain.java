@@ -29,9 +29,10 @@ import java.util.Vector;
  * <code>EffectsChain</code> is itself an <code>AudioEffect</code>, so you can 
  * easily create groups of effects that can be enabled/disabled together by 
  * putting them in an <code>EffectsChain</code> and then adding that chain to 
- * an <code>Effectable</code> as a single effect. <code>EffectsChain</code> is 
- * fully <code>synchronized</code> so that it is not possible to add and remove 
- * effects while processing is taking place.
+ * an <code>Effectable</code> as a single effect. Changes to the chain are 
+ * <code>synchronized</code> and each one publishes a new array of the enabled 
+ * effects, which is all that processing reads, so processing never waits for 
+ * the chain to be changed and a change takes effect from the next buffer.
  * 
  * @author Damien Di Fede
  *
@@ -43,6 +44,8 @@ public class EffectsChain implements AudioEffect
   private Vector effects;
   // all currently enabled effects
   private HashSet enabled;
+  // the enabled effects in chain order, replaced on every change
+  private volatile AudioEffect[] active = new AudioEffect[0];
   
   /**
    * Constructs an empty <code>EffectsChain</code>.
@@ -63,6 +66,7 @@ public class EffectsChain implements AudioEffect
   {
     effects.add(e);
     enabled.add(e);
+    snapshot();
   }
 
   /**
@@ -74,6 +78,7 @@ public class EffectsChain implements AudioEffect
   {
     effects.remove(e);
     enabled.remove(e);
+    snapshot();
   }
   
   /**
@@ -86,6 +91,7 @@ public class EffectsChain implements AudioEffect
   {
     AudioEffect e = (AudioEffect)effects.remove(i);
     enabled.remove(e);
+    snapshot();
     return e;
   }
   
@@ -118,6 +124,7 @@ public class EffectsChain implements AudioEffect
   public synchronized void enable(int i)
   {
     enabled.add(get(i));
+    snapshot();
   }
   
   /**
@@ -131,6 +138,7 @@ public class EffectsChain implements AudioEffect
     {
       enabled.add(e);
     }
+    snapshot();
   }
   
   /**
@@ -140,6 +148,7 @@ public class EffectsChain implements AudioEffect
   public synchronized void enableAll()
   {
     enabled.addAll(effects);
+    snapshot();
   }
   
   /**
@@ -171,6 +180,7 @@ public class EffectsChain implements AudioEffect
   public synchronized void disable(int i)
   {
     enabled.remove(get(i));
+    snapshot();
   }
   
   /**
@@ -181,6 +191,7 @@ public class EffectsChain implements AudioEffect
   public synchronized void disable(AudioEffect e)
   {
     enabled.remove(e);
+    snapshot();
   }
   
   /**
@@ -190,6 +201,7 @@ public class EffectsChain implements AudioEffect
   public synchronized void disableAll()
   {
     enabled.clear();
+    snapshot();
   }  
   
   /**
@@ -210,6 +222,7 @@ public class EffectsChain implements AudioEffect
   {
     effects.clear();
     enabled.clear();
+    snapshot();
   }
   
   /**
@@ -217,15 +230,12 @@ public class EffectsChain implements AudioEffect
    * 
    * @param samp the samples to process
    */
-  public synchronized void process(float[] samp)
+  public void process(float[] samp)
   {
-    for (int i = 0; i < effects.size(); i++)
+    AudioEffect[] now = active;
+    for (int i = 0; i < now.length; i++)
     {
-      AudioEffect e = (AudioEffect) effects.get(i);
-      if ( enabled.contains(e) )
-      {
-        e.process(samp);
-      }
+      now[i].process(samp);
     }  
   }
   
@@ -237,15 +247,26 @@ public class EffectsChain implements AudioEffect
    * @param sampL the left channel of the signal to process
    * @param sampR the right channel of the signal to process
    */
-  public synchronized void process(float[] sampL, float[] sampR)
+  public void process(float[] sampL, float[] sampR)
+  {
+    AudioEffect[] now = active;
+    for (int i = 0; i < now.length; i++)
+    {
+      now[i].process(sampL, sampR);
+    } 
+  }
+  
+  // publishes the enabled effects for process, holding the lock
+  private void snapshot()
   {
+    Vector now = new Vector(effects.size());
     for (int i = 0; i < effects.size(); i++)
     {
-      AudioEffect e = (AudioEffect) effects.get(i);
-      if ( enabled.contains(e) )
+      if ( enabled.contains(effects.get(i)) )
       {
-        e.process(sampL, sampR);
+        now.add(effects.get(i));
       }
-    } 
+    }
+    active = (AudioEffect[]) now.toArray(new AudioEffect[now.size()]);
   }
 }
@@ -18,13 +18,21 @@
 
 package ddf.minim;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * <code>MAudioBuffer</code> encapsulates a sample buffer of floats. All Minim
  * classes that give you access to audio samples do so with an
- * <code>MAudioBuffer</code>. The underlying array is not immutable and this
- * class has a number of methods for reading and writing to that array. It is
- * even possible to be given a direct handle on the array to process it as you
- * wish.
+ * <code>MAudioBuffer</code>. 
+ * <p>
+ * The audio thread writes whole buffers and everyone else reads them, so the
+ * samples are triple buffered: the writer fills a back array and swaps it
+ * with the shared middle one, and a reader swaps the middle array for its
+ * front one when a new buffer has been published there. The writer never
+ * waits for a reader, and a reader always sees one whole buffer. Readers
+ * only synchronize among themselves, to agree on the front array. Only the
+ * audio thread may call <code>set</code>, <code>mix</code> and 
+ * <code>clear</code>.
  * 
  * @author Damien Di Fede
  * 
@@ -32,7 +40,18 @@ package ddf.minim;
 
 final class MAudioBuffer implements AudioBuffer
 {
-  private float[] samples;
+  // set in myMiddle alongside the index when the writer has published an
+  // array the readers have not taken yet
+  private static final int FRESH = 4;
+  
+  private final float[][] buffers;
+  private final int size;
+  // owned by the writer
+  private int back = 0;
+  // index of the array between writer and readers, plus FRESH
+  private final AtomicInteger middle = new AtomicInteger(1);
+  // owned by the readers, guarded by this
+  private int front = 2;
 
   /**
    * Constructs and MAudioBuffer that is <code>bufferSize</code> samples long.
@@ -42,27 +61,36 @@ final class MAudioBuffer implements AudioBuffer
    */
   MAudioBuffer(int bufferSize)
   {
-    samples = new float[bufferSize];
+    size = bufferSize;
+    buffers = new float[3][bufferSize];
   }
 
-  public synchronized int size()
+  public int size()
   {
-    return samples.length;
+    return size;
   }
 
   public synchronized float get(int i)
   {
-    return samples[i];
+    return latest()[i];
   }
 
-  public synchronized void set(float[] buffer)
+  /**
+   * Copies <code>buffer</code> into this buffer. It must be the same length 
+   * as this buffer. If it is not, an error will be reported and nothing will 
+   * be done.
+   */
+  public void set(float[] buffer)
   {
-    if (buffer.length != samples.length)
+    if (buffer.length != size)
       Minim
           .error("MAudioBuffer.set: passed array (" + buffer.length + ") " + 
-              "must be the same length (" + samples.length + ") as this MAudioBuffer.");
+              "must be the same length (" + size + ") as this MAudioBuffer.");
     else
-      samples = buffer;
+    {
+      System.arraycopy(buffer, 0, buffers[back], 0, size);
+      publish();
+    }
   }
 
   /**
@@ -77,46 +105,72 @@ final class MAudioBuffer implements AudioBuffer
    * @param b2
    *          the second buffer
    */
-  public synchronized void mix(float[] b1, float[] b2)
+  public void mix(float[] b1, float[] b2)
   {
     if ((b1.length != b2.length)
-        || (b1.length != samples.length || b2.length != samples.length))
+        || (b1.length != size || b2.length != size))
     {
       Minim.error("MAudioBuffer.mix: The two passed buffers must be the same size as this MAudioBuffer.");
     }
     else
     {
-      for (int i = 0; i < samples.length; i++)
+      float[] samples = buffers[back];
+      for (int i = 0; i < size; i++)
       {
         samples[i] = (b1[i] + b2[i]) / 2;
       }
+      publish();
     }
   }
 
   /**
    * Sets all of the values in this buffer to zero.
    */
-  public synchronized void clear()
+  public void clear()
   {
-    samples = new float[samples.length];
+    java.util.Arrays.fill(buffers[back], 0);
+    publish();
   }
   
   public synchronized float level()
   {
+    float[] samples = latest();
     float level = 0;
-    for (int i = 0; i < samples.length; i++)
+    for (int i = 0; i < size; i++)
     {
       level += (samples[i] * samples[i]);
     }
-    level /= samples.length;
+    level /= size;
     level = (float) Math.sqrt(level);
     return level;
   }
 
   public synchronized float[] toArray()
   {
-    float[] ret = new float[samples.length];
-    System.arraycopy(samples, 0, ret, 0, samples.length);
+    float[] ret = new float[size];
+    System.arraycopy(latest(), 0, ret, 0, size);
     return ret;
   }
+  
+  public synchronized float[] copyInto(float[] out)
+  {
+    System.arraycopy(latest(), 0, out, 0, size);
+    return out;
+  }
+  
+  // writer: hands the back array over and takes the middle one to fill next
+  private void publish()
+  {
+    back = middle.getAndSet(back | FRESH) & ~FRESH;
+  }
+  
+  // readers, holding the lock: the newest published array
+  private float[] latest()
+  {
+    if ((middle.get() & FRESH) != 0)
+    {
+      front = middle.getAndSet(front) & ~FRESH;
+    }
+    return buffers[front];
+  }
 }
@@ -18,6 +18,7 @@
 
 package ddf.minim;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Vector;
 
@@ -31,9 +32,10 @@ import java.util.Vector;
  * putting them in an <code>SignalChain</code> and then adding that chain to a
  * <code>Polyphonic</code> object as a single signal. When the signal chain is
  * asked to generate a signal, it asks each of its signals to generate audio and
- * then mixes all of the signals together. <code>SignalChain</code> is fully
- * <code>synchronized</code> so that signals cannot be added and removed from
- * the chain during signal generation.
+ * then mixes all of the signals together. Changes to the chain are
+ * <code>synchronized</code> and each one publishes a new array of the enabled
+ * signals, which is all that generation reads, so generating never waits for
+ * the chain to be changed and a change takes effect from the next buffer.
  * 
  * @author Damien Di Fede
  * 
@@ -43,12 +45,12 @@ public class SignalChain implements AudioSignal
 {
   // the signals in the order they were added
   private Vector signals;
-  // signals we should remove after our next generate
-  // this is done so that a signal won't ever be actually 
-  // removed in the middle of a generate, which can cause clicks
-  private Vector signalsToRemove;
   // all currently enabled signals
   private HashSet enabled;
+  // the enabled signals in chain order, replaced on every change so that 
+  // generate never sees a signal go away in the middle of a buffer, which 
+  // can cause clicks
+  private volatile AudioSignal[] active = new AudioSignal[0];
   // buffers used to generate audio for each signal
   private float[] tmpL;
   private float[] tmpR;
@@ -60,7 +62,6 @@ public class SignalChain implements AudioSignal
   public SignalChain()
   {
     signals = new Vector();
-    signalsToRemove = new Vector();
     enabled = new HashSet();
   }
 
@@ -74,6 +75,7 @@ public class SignalChain implements AudioSignal
   {
     signals.add(signal);
     enabled.add(signal);
+    snapshot();
   }
 
   /**
@@ -84,8 +86,9 @@ public class SignalChain implements AudioSignal
    */
   public synchronized void remove(AudioSignal signal)
   {
-	//Minim.debug("Marking " + signal.toString() + " for removal.");
-	signalsToRemove.add(signal);
+    signals.removeAll(Collections.singleton(signal));
+    enabled.remove(signal);
+    snapshot();
   }
 
   /**
@@ -100,6 +103,7 @@ public class SignalChain implements AudioSignal
   {
     AudioSignal s = (AudioSignal) signals.remove(i);
     enabled.remove(s);
+    snapshot();
     return s;
   }
 
@@ -134,6 +138,7 @@ public class SignalChain implements AudioSignal
   public synchronized void enable(int i)
   {
     enabled.add(get(i));
+    snapshot();
   }
 
   /**
@@ -148,6 +153,7 @@ public class SignalChain implements AudioSignal
     {
       enabled.add(signal);
     }
+    snapshot();
   }
 
   /**
@@ -157,6 +163,7 @@ public class SignalChain implements AudioSignal
   public synchronized void enableAll()
   {
     enabled.addAll(signals);
+    snapshot();
   }
 
   /**
@@ -190,6 +197,7 @@ public class SignalChain implements AudioSignal
   public synchronized void disable(int i)
   {
     enabled.remove(get(i));
+    snapshot();
   }
 
   /**
@@ -201,6 +209,7 @@ public class SignalChain implements AudioSignal
   public synchronized void disable(AudioSignal signal)
   {
     enabled.remove(signal);
+    snapshot();
   }
 
   /**
@@ -210,6 +219,7 @@ public class SignalChain implements AudioSignal
   public synchronized void disableAll()
   {
     enabled.clear();
+    snapshot();
   }
 
   /**
@@ -230,6 +240,7 @@ public class SignalChain implements AudioSignal
   {
     signals.clear();
     enabled.clear();
+    snapshot();
   }
 
   /**
@@ -238,31 +249,25 @@ public class SignalChain implements AudioSignal
    * <code>signal</code>.
    * 
    */
-  public synchronized void generate(float[] signal)
+  public void generate(float[] signal)
   {
-    if ( tmpL == null )
+    AudioSignal[] now = active;
+    if ( tmpL == null || tmpL.length != signal.length )
     {
     	tmpL = new float[signal.length];
     }
-    for (int i = 0; i < signals.size(); i++)
+    for (int i = 0; i < now.length; i++)
     {
-      AudioSignal s = (AudioSignal) signals.get(i);
-      if ( enabled.contains(s) )
+      for(int it = 0; it < tmpL.length; it++) 
+      { 
+      	tmpL[it] = 0; 
+      }
+      now[i].generate(tmpL);
+      for (int is = 0; is < signal.length; is++)
       {
-        for(int it = 0; it < tmpL.length; it++) 
-        { 
-        	tmpL[it] = 0; 
-        }
-        s.generate(tmpL);
-        for (int is = 0; is < signal.length; is++)
-        {
-          signal[is] += tmpL[is];
-        }
+        signal[is] += tmpL[is];
       }
     }
-    // now remove signals we have marked for removal
-    signals.removeAll(signalsToRemove);
-    signalsToRemove.removeAllElements();    
   }
 
   /**
@@ -270,31 +275,39 @@ public class SignalChain implements AudioSignal
    * buffer of samples, adds the signals together and puts the result in
    * <code>left</code> and <code>right</code>.
    */
-  public synchronized void generate(float[] left, float[] right)
+  public void generate(float[] left, float[] right)
   {
-	  if ( tmpL == null )
+    AudioSignal[] now = active;
+	  if ( tmpL == null || tmpL.length != left.length )
 	  {
 		  tmpL = new float[left.length];
 	  }
-	  if ( tmpR == null )
+	  if ( tmpR == null || tmpR.length != right.length )
 	  {
 		  tmpR = new float[right.length];
 	  }
+    for (int i = 0; i < now.length; i++)
+    {
+      now[i].generate(tmpL, tmpR);
+      for (int j = 0; j < left.length; j++)
+      {
+        left[j] += tmpL[j];
+        right[j] += tmpR[j];
+      }
+    }
+  }
+  
+  // publishes the enabled signals for generate, holding the lock
+  private void snapshot()
+  {
+    Vector now = new Vector(signals.size());
     for (int i = 0; i < signals.size(); i++)
     {
-      AudioSignal s = (AudioSignal) signals.get(i);
-      if ( enabled.contains(s) )
+      if ( enabled.contains(signals.get(i)) )
       {
-        s.generate(tmpL, tmpR);
-        for (int j = 0; j < left.length; j++)
-        {
-          left[j] += tmpL[j];
-          right[j] += tmpR[j];
-        }
+        now.add(signals.get(i));
       }
     }
-    // now remove signals we have marked for removal
-    signals.removeAll(signalsToRemove);
-    signalsToRemove.removeAllElements(); 
+    active = (AudioSignal[]) now.toArray(new AudioSignal[now.size()]);
   }
 }
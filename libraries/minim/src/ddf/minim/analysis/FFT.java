@@ -63,6 +63,8 @@ public class FFT extends FourierTransform
     spectrum = new float[timeSize / 2 + 1];
     real = new float[timeSize];
     imag = new float[timeSize];
+    revReal = new float[timeSize];
+    revImag = new float[timeSize];
   }
 
   public void scaleBand(int i, float s)
@@ -234,17 +236,23 @@ public class FFT extends FourierTransform
   }
 
   // bit reverse real[] and imag[]
+  // the arrays real and imag are reordered into, swapped with them each time
+  private float[] revReal;
+  private float[] revImag;
+
   private void bitReverseComplex()
   {
-    float[] revReal = new float[real.length];
-    float[] revImag = new float[imag.length];
     for (int i = 0; i < real.length; i++)
     {
       revReal[i] = real[reverse[i]];
       revImag[i] = imag[reverse[i]];
     }
+    float[] tmp = real;
     real = revReal;
+    revReal = tmp;
+    tmp = imag;
     imag = revImag;
+    revImag = tmp;
   }
 
   // lookup tables
@@ -373,6 +373,31 @@ public abstract class FourierTransform
     return spectrum.length;
   }
 
+  /**
+   * Returns the real part of the complex spectrum computed by the last
+   * transform, <code>timeSize()</code> values long. The array is the
+   * transform's own, not a copy, and a later transform may write into it or
+   * replace it, so read it before transforming again and do not change it.
+   * 
+   * @return the real part of the last spectrum
+   */
+  public float[] getSpectrumReal()
+  {
+    return real;
+  }
+
+  /**
+   * Returns the imaginary part of the complex spectrum computed by the last
+   * transform. Like {@link #getSpectrumReal()}, it is only good until the next
+   * transform.
+   * 
+   * @return the imaginary part of the last spectrum
+   */
+  public float[] getSpectrumImaginary()
+  {
+    return imag;
+  }
+
   /**
    * Returns the amplitude of the requested frequency band.
    * 
@@ -24,9 +24,8 @@ import ddf.minim.Minim;
 /**
  * <code>Convolver</code> is an effect that convolves a signal with a kernal.
  * The kernal can be thought of as the impulse response of an audio filter, or
- * simply as a set of weighting coefficients. <code>Convolver</code> performs
- * brute-force convolution, meaning that it is slow, relatively speaking.
- * However, the algorithm is very straighforward. Each output sample
+ * simply as a set of weighting coefficients. Short kernals are convolved
+ * directly, which is very straightforward. Each output sample
  * <code>i</code> is calculated by multiplying each kernal value
  * <code>j</code> with the input sample <code>i - j</code> and then summing
  * the resulting values. The output will be
@@ -34,19 +33,36 @@ import ddf.minim.Minim;
  * samples are stored in an overlap array. The overlap array from the previous
  * signal convolution is added into the beginning of the output array, which
  * results in a output signal without pops.
+ * <p>
+ * Direct convolution costs <code>kernal.length</code> multiplies per sample,
+ * which is too slow for a long impulse response such as a reverb. Kernals
+ * longer than {@link #FFT_THRESHOLD} are instead cut into partitions and
+ * convolved with FFTs, in blocks of the largest power of two that fits in
+ * the buffer, so that seconds of impulse response can run in real time. If
+ * the buffer length is a power of two the output is not delayed; otherwise
+ * it is delayed by one block, which is reported by {@link #latency()}.
  * 
  * @author Damien Di Fede
  * @see <a href="http://www.dspguide.com/ch6.htm">Convolution</a>
+ * @see <a href="http://www.dspguide.com/ch18.htm">FFT Convolution</a>
  * 
  */
 public class Convolver implements AudioEffect
 {
+  /**
+   * Kernals longer than this many samples are convolved with FFTs rather than
+   * directly.
+   */
+  public static final int FFT_THRESHOLD = 128;
+
   protected float[] kernal;
   protected float[] outputL;
   protected float[] overlapL;
   protected float[] outputR;
   protected float[] overlapR;
   protected int sigLen;
+  // used instead of the arrays above when the kernal is long
+  private PartitionedConvolution partitioned;
 
   /**
    * Constructs a Convolver with the kernal <code>k</code> that expects buffer
@@ -66,7 +82,8 @@ public class Convolver implements AudioEffect
   /**
    * Sets the kernal to <code>k</code>. The values in <code>k</code> are
    * copied so it is not possible to alter the kernal after it has been set
-   * except by setting it again.
+   * except by setting it again. Whatever is still ringing from the old kernal
+   * is dropped.
    * 
    * @param k
    *          the kernal to use
@@ -75,10 +92,31 @@ public class Convolver implements AudioEffect
   {
     kernal = new float[k.length];
     System.arraycopy(k, 0, kernal, 0, k.length);
-    outputL = new float[sigLen + kernal.length - 1];
-    outputR = new float[sigLen + kernal.length - 1];
-    overlapL = new float[outputL.length - sigLen];
-    overlapR = new float[outputR.length - sigLen];
+    if (kernal.length > FFT_THRESHOLD)
+    {
+      partitioned = new PartitionedConvolution(kernal, sigLen, 2);
+      outputL = outputR = overlapL = overlapR = null;
+    }
+    else
+    {
+      partitioned = null;
+      outputL = new float[sigLen + kernal.length - 1];
+      outputR = new float[sigLen + kernal.length - 1];
+      overlapL = new float[kernal.length - 1];
+      overlapR = new float[kernal.length - 1];
+    }
+  }
+
+  /**
+   * Returns the number of samples by which the output lags the input, which
+   * is not zero only when a long kernal is convolved and the buffer length is
+   * not a power of two.
+   * 
+   * @return the latency in samples
+   */
+  public int latency()
+  {
+    return partitioned == null ? 0 : partitioned.latency();
   }
 
   public void process(float[] signal)
@@ -89,25 +127,12 @@ public class Convolver implements AudioEffect
           .error("Convolver.process: signal.length does not equal sigLen, no processing will occurr.");
       return;
     }
-    // store the overlap from the previous convolution
-    System.arraycopy(outputL, signal.length, overlapL, 0, overlapL.length);
-    // convolve kernal with signal and put the result in outputL
-    for (int i = 0; i < outputL.length; i++)
-    {
-      outputL[i] = 0;
-      for (int j = 0; j < kernal.length; j++)
-      {
-        if (i - j < 0 || i - j > signal.length) continue;
-        outputL[i] += kernal[j] * signal[i - j];
-      }
-    }
-    // copy the result into signal
-    System.arraycopy(outputL, 0, signal, 0, signal.length);
-    // add the overlap from the previous convolution to the beginning of signal
-    for (int i = 0; i < overlapL.length; i++)
+    if (partitioned != null)
     {
-      signal[i] += overlapL[i];
+      partitioned.process(0, signal);
+      return;
     }
+    convolve(signal, outputL, overlapL);
   }
 
   public void process(float[] sigLeft, float[] sigRight)
@@ -118,25 +143,41 @@ public class Convolver implements AudioEffect
           .error("Convolver.process: signal.length does not equal sigLen, no processing will occurr.");
       return;
     }
-    System.arraycopy(outputL, sigLeft.length, overlapL, 0, overlapL.length);
-    System.arraycopy(outputR, sigRight.length, overlapR, 0, overlapR.length);
-    for (int i = 0; i < outputL.length; i++)
+    if (partitioned != null)
+    {
+      partitioned.process(0, sigLeft);
+      partitioned.process(1, sigRight);
+      return;
+    }
+    convolve(sigLeft, outputL, overlapL);
+    convolve(sigRight, outputR, overlapR);
+  }
+
+  // Convolves signal with the kernal into output, adds in the tail left over
+  // from earlier signals, copies the first signal.length samples back into
+  // signal and keeps the rest as the tail for the next one. The tail is as
+  // long as the kernal, so it also carries what earlier signals still owe when
+  // the kernal is longer than a signal.
+  private void convolve(float[] signal, float[] output, float[] overlap)
+  {
+    int last = kernal.length - 1;
+    for (int i = 0; i < output.length; i++)
     {
-      outputL[i] = 0;
-      outputR[i] = 0;
-      for (int j = 0; j < kernal.length; j++)
+      // only the j for which i - j falls inside signal
+      int from = Math.max(0, i - signal.length + 1);
+      int to = Math.min(last, i);
+      float sum = 0;
+      for (int j = from; j <= to; j++)
       {
-        if (i - j < 0 || i - j >= sigLeft.length) continue;
-        outputL[i] += kernal[j] * sigLeft[i - j];
-        outputR[i] += kernal[j] * sigRight[i - j];
+        sum += kernal[j] * signal[i - j];
       }
+      output[i] = sum;
     }
-    System.arraycopy(outputL, 0, sigLeft, 0, sigLeft.length);
-    System.arraycopy(outputR, 0, sigRight, 0, sigRight.length);
-    for (int i = 0; i < overlapL.length; i++)
+    for (int i = 0; i < overlap.length; i++)
     {
-      sigLeft[i] += overlapL[i];
-      sigRight[i] += overlapR[i];
+      output[i] += overlap[i];
     }
+    System.arraycopy(output, 0, signal, 0, signal.length);
+    System.arraycopy(output, signal.length, overlap, 0, overlap.length);
   }
 }
@@ -0,0 +1,188 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.effects;
+
+import ddf.minim.analysis.FFT;
+
+/**
+ * Convolves one or more channels with a long kernal using uniformly
+ * partitioned overlap-save. The kernal is cut into partitions of
+ * <code>B</code> samples and the spectrum of each, zero padded to
+ * <code>2B</code>, is computed once. For every <code>B</code> input samples
+ * the spectrum of the last <code>2B</code> inputs is added to a delay line,
+ * each spectrum in the line is multiplied with the partition of the same age,
+ * and the inverse transform of the sum gives the next <code>B</code> output
+ * samples in its second half. The work per sample grows with
+ * <code>log(B)</code> and the number of partitions, rather than with the
+ * length of the kernal.
+ * <p>
+ * <code>B</code> is the largest power of two not above the buffer length. When
+ * the buffer length is a power of two, each buffer is one block and comes out
+ * with no added latency; otherwise the output is <code>B</code> samples late.
+ *
+ * @see Convolver
+ */
+final class PartitionedConvolution
+{
+  private final int blockSize;
+  private final int fftSize;
+  // bins 0 to fftSize/2, the rest mirror them because the signal is real
+  private final int bins;
+  private final boolean delayed;
+  private final FFT fft;
+  // spectra of the kernal partitions, [partition][bin]
+  private final float[][] kernalReal;
+  private final float[][] kernalImag;
+  private final Channel[] channels;
+  // the summed spectrum and the inverse transform of it
+  private final float[] sumReal;
+  private final float[] sumImag;
+  private final float[] result;
+
+  PartitionedConvolution(float[] kernal, int bufferSize, int channelCount)
+  {
+    blockSize = Integer.highestOneBit(bufferSize);
+    fftSize = blockSize * 2;
+    bins = blockSize + 1;
+    delayed = bufferSize % blockSize != 0;
+    fft = new FFT(fftSize, 44100);
+
+    int partitions = (kernal.length + blockSize - 1) / blockSize;
+    kernalReal = new float[partitions][bins];
+    kernalImag = new float[partitions][bins];
+    float[] padded = new float[fftSize];
+    for (int p = 0; p < partitions; p++)
+    {
+      int start = p * blockSize;
+      int length = Math.min(blockSize, kernal.length - start);
+      System.arraycopy(kernal, start, padded, 0, length);
+      for (int i = length; i < blockSize; i++)
+      {
+        padded[i] = 0;
+      }
+      fft.forward(padded);
+      System.arraycopy(fft.getSpectrumReal(), 0, kernalReal[p], 0, bins);
+      System.arraycopy(fft.getSpectrumImaginary(), 0, kernalImag[p], 0, bins);
+    }
+
+    channels = new Channel[channelCount];
+    for (int c = 0; c < channelCount; c++)
+    {
+      channels[c] = new Channel(partitions);
+    }
+    sumReal = new float[fftSize];
+    sumImag = new float[fftSize];
+    result = new float[fftSize];
+  }
+
+  /**
+   * Returns the samples by which the output lags the input.
+   */
+  int latency()
+  {
+    return delayed ? blockSize : 0;
+  }
+
+  /**
+   * Convolves <code>signal</code> in place, carrying on from the last buffer
+   * processed for the same channel.
+   */
+  void process(int channel, float[] signal)
+  {
+    Channel ch = channels[channel];
+    int i = 0;
+    while (i < signal.length)
+    {
+      int n = Math.min(blockSize - ch.filled, signal.length - i);
+      System.arraycopy(signal, i, ch.window, blockSize + ch.filled, n);
+      boolean full = ch.filled + n == blockSize;
+      if (full && !delayed)
+      {
+        convolveBlock(ch);
+      }
+      System.arraycopy(ch.output, ch.filled, signal, i, n);
+      if (full && delayed)
+      {
+        convolveBlock(ch);
+      }
+      ch.filled = full ? 0 : ch.filled + n;
+      i += n;
+    }
+  }
+
+  // Turns the block that just filled the second half of the window into the
+  // next blockSize samples of output, then slides the window along.
+  private void convolveBlock(Channel ch)
+  {
+    int partitions = kernalReal.length;
+    ch.newest = (ch.newest + partitions - 1) % partitions;
+    fft.forward(ch.window);
+    System.arraycopy(fft.getSpectrumReal(), 0, ch.inputReal[ch.newest], 0, bins);
+    System.arraycopy(fft.getSpectrumImaginary(), 0, ch.inputImag[ch.newest], 0, bins);
+
+    for (int k = 0; k < bins; k++)
+    {
+      sumReal[k] = 0;
+      sumImag[k] = 0;
+    }
+    for (int p = 0; p < partitions; p++)
+    {
+      int slot = ch.newest + p;
+      if (slot >= partitions) slot -= partitions;
+      float[] xr = ch.inputReal[slot];
+      float[] xi = ch.inputImag[slot];
+      float[] hr = kernalReal[p];
+      float[] hi = kernalImag[p];
+      for (int k = 0; k < bins; k++)
+      {
+        sumReal[k] += xr[k] * hr[k] - xi[k] * hi[k];
+        sumImag[k] += xr[k] * hi[k] + xi[k] * hr[k];
+      }
+    }
+    for (int k = 1; k < blockSize; k++)
+    {
+      sumReal[fftSize - k] = sumReal[k];
+      sumImag[fftSize - k] = -sumImag[k];
+    }
+
+    fft.inverse(sumReal, sumImag, result);
+    // the first half has wrapped around, the second half is the output
+    System.arraycopy(result, blockSize, ch.output, 0, blockSize);
+    System.arraycopy(ch.window, blockSize, ch.window, 0, blockSize);
+  }
+
+  private final class Channel
+  {
+    // the previous block, then the block being filled
+    final float[] window = new float[fftSize];
+    int filled;
+    final float[] output = new float[blockSize];
+    // the spectra of past windows, newest at index newest and older ones after
+    // it, wrapping around
+    final float[][] inputReal;
+    final float[][] inputImag;
+    int newest;
+
+    Channel(int partitions)
+    {
+      inputReal = new float[partitions][bins];
+      inputImag = new float[partitions][bins];
+    }
+  }
+}
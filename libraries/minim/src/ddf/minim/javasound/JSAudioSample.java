@@ -39,6 +39,26 @@ final class JSAudioSample extends AudioSample
     sample.trigger();
   }
   
+  public void trigger(float gain, float pan, float rate)
+  {
+    sample.trigger(gain, pan, rate);
+  }
+  
+  public void setMaxVoices(int voices)
+  {
+    sample.setMaxVoices(voices);
+  }
+  
+  public void setVoiceStealing(int policy)
+  {
+    sample.setVoiceStealing(policy);
+  }
+  
+  public int activeVoices()
+  {
+    return sample.activeVoices();
+  }
+  
   public void stop()
   {
     sample.stop();
@@ -20,120 +20,323 @@ package ddf.minim.javasound;
 
 import org.tritonus.share.sampled.FloatSampleBuffer;
 
+import ddf.minim.AudioSample;
 import ddf.minim.AudioSignal;
 import ddf.minim.BufferedAudio;
 import ddf.minim.Minim;
 import ddf.minim.Triggerable;
 
+/**
+ * Plays a sample held in memory each time it is triggered, however many 
+ * times it is already playing. Each trigger takes a voice from a pool that 
+ * grows as it is needed, up to <code>maxVoices</code>. When they are all 
+ * playing, the stealing policy says whether the new trigger takes over the 
+ * oldest voice, the quietest one, or is dropped. Every voice has its own 
+ * gain, pan and playback rate.
+ * <p>
+ * Triggers and stops are queued by the calling thread and picked up at the 
+ * start of the next buffer, so only the audio thread ever touches the voices 
+ * and mixing takes no locks.
+ */
 class SampleSignal implements AudioSignal, Triggerable
 {
-	private FloatSampleBuffer	buffer;
-	private int[]					marks;
-	private int						markAt;
-
-	public SampleSignal(FloatSampleBuffer samps)
-	{
-		buffer = samps;
-		marks = new int[20];
-		for (int i = 0; i < marks.length; i++)
-		{
-			marks[i] = -1;
-		}
-		markAt = 0;
-	}
-
-	public void generate(float[] signal)
-	{
-		//	 build our signal from all the marks
-      for (int i = 0; i < marks.length; i++)
+  private FloatSampleBuffer buffer;
+  // the sample's channels, right is left for a mono sample
+  private float[] left;
+  private float[] right;
+  private int length;
+
+  // voices[0] to voices[active - 1] are playing, the rest are free
+  private Voice[] voices = new Voice[8];
+  private int voiceCount = 0;
+  private volatile int active = 0;
+  private long started = 0;
+  private int maxVoices = Integer.MAX_VALUE;
+  private int stealing = AudioSample.STEAL_OLDEST;
+
+  // triggers come in on one and are started from the other
+  private Requests incoming = new Requests();
+  private Requests draining = new Requests();
+
+  public SampleSignal(FloatSampleBuffer samps)
+  {
+    buffer = samps;
+    left = buffer.getChannel(0);
+    right = buffer.getChannelCount() > 1 ? buffer.getChannel(1) : left;
+    length = buffer.getSampleCount();
+  }
+
+  public void generate(float[] signal)
+  {
+    startRequested();
+    for (int v = 0; v < active; )
+    {
+      Voice voice = voices[v];
+      if ( mix(voice, signal, null) )
       {
-        int begin = marks[i];
-        if (begin == -1) 
-        {
-      	  continue;
-        }
-        
-        //JSMinim.debug("Sample trigger in process at marks[" + i + "] = " + marks[i]);
-        int j, k;
-        for (j = begin, k = 0; j < buffer.getSampleCount()
-                            && k < signal.length; j++, k++)
-        {
-          signal[k] += buffer.getChannel(0)[j];
-        }
-        if ( j < buffer.getSampleCount() )
-        {
-          marks[i] = j;
-        }
-        else
-        {
-          //Minim.debug("Sample trigger ended.");
-          marks[i] = -1;
-        }
+        v++;
+      }
+      else
+      {
+        finished(v);
+      }
+    }
+  }
+
+  public void generate(float[] left, float[] right)
+  {
+    startRequested();
+    for (int v = 0; v < active; )
+    {
+      Voice voice = voices[v];
+      if ( mix(voice, left, right) )
+      {
+        v++;
       }
+      else
+      {
+        finished(v);
+      }
+    }
+  }
 
-	}
+  public void trigger()
+  {
+    trigger(1, 0, 1);
+  }
 
-	public void generate(float[] left, float[] right)
-	{
-		//	 build our signal from all the marks
-      for (int i = 0; i < marks.length; i++)
+  /**
+   * Starts the sample playing once more, <code>gain</code> times as loud, 
+   * panned from -1 (left) to 1 (right) and played back <code>rate</code> 
+   * times as fast.
+   */
+  public synchronized void trigger(float gain, float pan, float rate)
+  {
+    if ( rate <= 0 )
+    {
+      Minim.error("SampleSignal.trigger: rate must be more than 0, not " + rate);
+      return;
+    }
+    incoming.add(gain, pan, rate);
+  }
+  
+  public synchronized void stop()
+  {
+    incoming.count = 0;
+    incoming.stop = true;
+  }
+
+  public synchronized void setMaxVoices(int voices)
+  {
+    maxVoices = Math.max(1, voices);
+  }
+
+  public synchronized void setVoiceStealing(int policy)
+  {
+    stealing = policy;
+  }
+
+  public int activeVoices()
+  {
+    return active;
+  }
+
+  public float[] getChannel(int channelNumber)
+  {
+    if ( channelNumber == BufferedAudio.LEFT )
+    {
+      return left;
+    }
+    else if ( channelNumber == BufferedAudio.RIGHT )
+    {
+      return right;
+    }
+    Minim.error("getChannel: Illegal channel number " + channelNumber);
+    return null;
+  }
+
+  // adds one buffer of the voice to the output, right is null for mono;
+  // false once the voice has reached the end of the sample
+  private boolean mix(Voice voice, float[] outL, float[] outR)
+  {
+    float[] l = left, r = right;
+    float gl = voice.gainLeft, gr = voice.gainRight;
+    int n = outL.length;
+    if ( voice.rate == 1 )
+    {
+      int j = (int) voice.position;
+      int count = Math.min(n, length - j);
+      if ( outR == null )
       {
-        int begin = marks[i];
-        if (begin == -1) 
+        gl = voice.gain;
+        for (int k = 0; k < count; k++, j++)
         {
-      	  continue;
+          outL[k] += l[j] * gl;
         }
-        
-        //Minim.debug("Sample trigger in process at marks[" + i + "] = " + marks[i]);
-        int j, k;
-        for (j = begin, k = 0; j < buffer.getSampleCount() && k < left.length; j++, k++)
-        {
-          left[k] += buffer.getChannel(0)[j];
-          right[k] += buffer.getChannel(1)[j];
-        }
-        if ( j < buffer.getSampleCount() )
-        {
-          marks[i] = j;
-        }
-        else
+      }
+      else
+      {
+        for (int k = 0; k < count; k++, j++)
         {
-          //Minim.debug("Sample trigger ended.");
-          marks[i] = -1;
+          outL[k] += l[j] * gl;
+          outR[k] += r[j] * gr;
         }
       }
+      voice.position = j;
+      return j < length;
+    }
 
-	}
+    // resampled, reading between samples j and j + 1
+    double p = voice.position;
+    double rate = voice.rate;
+    int count = (int) Math.min(n, Math.ceil((length - 1 - p) / rate));
+    if ( count > 0 && (int) (p + (count - 1) * rate) >= length - 1 )
+    {
+      count--;
+    }
+    if ( outR == null )
+    {
+      gl = voice.gain;
+      for (int k = 0; k < count; k++, p += rate)
+      {
+        int j = (int) p;
+        float t = (float) (p - j);
+        outL[k] += (l[j] + (l[j + 1] - l[j]) * t) * gl;
+      }
+    }
+    else
+    {
+      for (int k = 0; k < count; k++, p += rate)
+      {
+        int j = (int) p;
+        float t = (float) (p - j);
+        outL[k] += (l[j] + (l[j + 1] - l[j]) * t) * gl;
+        outR[k] += (r[j] + (r[j + 1] - r[j]) * t) * gr;
+      }
+    }
+    voice.position = p;
+    return count == n && p < length - 1;
+  }
 
-	public void trigger()
-	{
-		marks[markAt] = 0;
-		markAt++;
-		if (markAt == marks.length)
-		{
-			markAt = 0;
-		}
+  // swaps the voice at v for the last playing one
+  private void finished(int v)
+  {
+    int last = active - 1;
+    Voice voice = voices[v];
+    voices[v] = voices[last];
+    voices[last] = voice;
+    active = last;
+  }
 
-	}
-  
-  public void stop()
+  // the audio thread's half of trigger() and stop()
+  private void startRequested()
+  {
+    Requests requests;
+    int max, policy;
+    synchronized (this)
+    {
+      requests = incoming;
+      incoming = draining;
+      draining = requests;
+      max = maxVoices;
+      policy = stealing;
+    }
+    if ( requests.stop )
+    {
+      active = 0;
+      requests.stop = false;
+    }
+    for (int i = 0; i < requests.count; i++)
+    {
+      Voice voice = voiceFor(requests.gain[i], max, policy);
+      if ( voice != null )
+      {
+        voice.start(requests.gain[i], requests.pan[i], requests.rate[i], started++);
+      }
+    }
+    requests.count = 0;
+  }
+
+  private Voice voiceFor(float gain, int max, int policy)
   {
-    for(int i = 0; i < marks.length; ++i)
+    if ( active < voiceCount && active < max )
+    {
+      return voices[active++];
+    }
+    if ( active < max )
     {
-      marks[i] = -1;
+      if ( voiceCount == voices.length )
+      {
+        Voice[] more = new Voice[voices.length * 2];
+        System.arraycopy(voices, 0, more, 0, voiceCount);
+        voices = more;
+      }
+      voices[voiceCount++] = new Voice();
+      return voices[active++];
     }
+    if ( active == 0 || policy == AudioSample.STEAL_NONE )
+    {
+      return null;
+    }
+    int steal = 0;
+    for (int v = 1; v < active; v++)
+    {
+      if ( policy == AudioSample.STEAL_QUIETEST ? voices[v].gain < voices[steal].gain
+                                                : voices[v].started < voices[steal].started )
+      {
+        steal = v;
+      }
+    }
+    return voices[steal];
   }
 
-	public float[] getChannel(int channelNumber)
-	{
-		if ( channelNumber == BufferedAudio.LEFT )
-		{
-			return buffer.getChannel(0);
-		}
-		else if ( channelNumber == BufferedAudio.RIGHT )
-		{
-			return buffer.getChannel(1);
-		}
-		Minim.error("getChannel: Illegal channel number " + channelNumber);
-		return null;
-	}
+  private static final class Voice
+  {
+    double position;
+    double rate;
+    float gain;
+    float gainLeft;
+    float gainRight;
+    long started;
+
+    void start(float gain, float pan, float rate, long started)
+    {
+      this.position = 0;
+      this.rate = rate;
+      this.gain = gain;
+      this.gainLeft = gain * Math.min(1, 1 - pan);
+      this.gainRight = gain * Math.min(1, 1 + pan);
+      this.started = started;
+    }
+  }
+
+  private static final class Requests
+  {
+    float[] gain = new float[8];
+    float[] pan = new float[8];
+    float[] rate = new float[8];
+    int count;
+    boolean stop;
+
+    void add(float g, float p, float r)
+    {
+      if ( count == gain.length )
+      {
+        gain = grow(gain);
+        pan = grow(pan);
+        rate = grow(rate);
+      }
+      gain[count] = g;
+      pan[count] = p;
+      rate[count] = r;
+      count++;
+    }
+
+    private static float[] grow(float[] a)
+    {
+      float[] more = new float[a.length * 2];
+      System.arraycopy(a, 0, more, 0, a.length);
+      return more;
+    }
+  }
 }
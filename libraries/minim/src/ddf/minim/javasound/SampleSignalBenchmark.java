@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2007 - 2008 by Damien Di Fede <ddf@compartmental.net>
+ *
+ *   This program is free software; you can redistribute it and/or modify
+ *   it under the terms of the GNU Library General Public License as published
+ *   by the Free Software Foundation; either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Library General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Library General Public
+ *   License along with this program; if not, write to the Free Software
+ *   Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package ddf.minim.javasound;
+
+import org.tritonus.share.sampled.FloatSampleBuffer;
+
+/**
+ * Times how long a <code>SampleSignal</code> takes to mix a stereo buffer 
+ * with more and more voices playing, at the recorded rate and resampled, 
+ * and prints the cost per voice. Run it with Minim and Tritonus on the 
+ * class path:
+ * <p>
+ * <code>java ddf.minim.javasound.SampleSignalBenchmark [bufferSize]</code>
+ */
+final class SampleSignalBenchmark
+{
+  private static final float SAMPLE_RATE = 44100;
+  private static final int BUFFERS = 400;
+
+  public static void main(String[] args)
+  {
+    int bufferSize = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+    // long enough that no voice finishes while it is being timed
+    FloatSampleBuffer samples = new FloatSampleBuffer(2, (int) (SAMPLE_RATE * 10), SAMPLE_RATE);
+    java.util.Random random = new java.util.Random(1);
+    for (int c = 0; c < 2; c++)
+    {
+      float[] channel = samples.getChannel(c);
+      for (int i = 0; i < channel.length; i++)
+      {
+        channel[i] = random.nextFloat() * 2 - 1;
+      }
+    }
+    float[] left = new float[bufferSize];
+    float[] right = new float[bufferSize];
+    double budget = bufferSize / SAMPLE_RATE * 1e9;
+
+    System.out.println("buffer of " + bufferSize + " samples, " + (long) (budget / 1000) + " us of audio");
+    System.out.println("voices  rate  us/buffer  ns/voice/sample  % of real time");
+    float[] rates = { 1, 1.07f };
+    for (int r = 0; r < rates.length; r++)
+    {
+      for (int voices = 1; voices <= 256; voices *= 2)
+      {
+        SampleSignal signal = new SampleSignal(samples);
+        // warm up, then time from a fresh set of triggers
+        time(signal, voices, rates[r], left, right);
+        long nanos = time(signal, voices, rates[r], left, right);
+        double perBuffer = nanos / (double) BUFFERS;
+        System.out.println(pad(voices, 6) + "  " + rates[r] + "  " + pad((long) (perBuffer / 1000), 9) 
+                           + "  " + pad(perBuffer / voices / bufferSize, 15) 
+                           + "  " + pad(100 * perBuffer / budget, 14));
+      }
+    }
+  }
+
+  private static long time(SampleSignal signal, int voices, float rate, float[] left, float[] right)
+  {
+    signal.stop();
+    for (int v = 0; v < voices; v++)
+    {
+      signal.trigger(0.5f, (v % 3) - 1, rate);
+    }
+    long start = System.nanoTime();
+    for (int b = 0; b < BUFFERS; b++)
+    {
+      java.util.Arrays.fill(left, 0);
+      java.util.Arrays.fill(right, 0);
+      signal.generate(left, right);
+    }
+    long nanos = System.nanoTime() - start;
+    if ( signal.activeVoices() != voices )
+    {
+      System.out.println("only " + signal.activeVoices() + " of " + voices + " voices were playing");
+    }
+    return nanos;
+  }
+
+  private static String pad(double value, int width)
+  {
+    String s = value == (long) value ? String.valueOf((long) value) 
+                                     : String.valueOf(Math.round(value * 100) / 100.0);
+    while (s.length() < width)
+    {
+      s = " " + s;
+    }
+    return s;
+  }
+}